@@ -1,28 +1,38 @@
-import java.time.LocalDate;
-
-public class Expense {
-    private String name;
-    private String category;
-    private double amount;
-    private LocalDate date;
-    private String notes;
-
-    public Expense(String name, String category, double amount, LocalDate date, String notes) {
-        this.name = name;
-        this.category = category;
-        this.amount = amount;
-        this.date = date;
-        this.notes = notes == null ? "" : notes;
-    }
-
-    public String getName() { return name; }
-    public String getCategory() { return category; }
-    public double getAmount() { return amount; }
-    public LocalDate getDate() { return date; }
-    public String getNotes() { return notes; }
-
-    @Override
-    public String toString() {
-        return name + "," + category + "," + amount + "," + date + "," + notes;
-    }
-}
\ No newline at end of file
+import java.time.LocalDate;
+
+public class Expense {
+    private String name;
+    private String category;
+    private long cents; // exact; see ExpenseMoney
+    private LocalDate date;
+    private String notes;
+
+    /** {@code amount} is rounded to whole cents; NaN, infinities and huge values are rejected. */
+    public Expense(String name, String category, double amount, LocalDate date, String notes) {
+        this(name, category, date, notes, ExpenseMoney.toCents(amount));
+    }
+
+    private Expense(String name, String category, LocalDate date, String notes, long cents) {
+        this.name = name;
+        this.category = category;
+        this.cents = cents;
+        this.date = date;
+        this.notes = notes == null ? "" : notes;
+    }
+
+    static Expense ofCents(String name, String category, long cents, LocalDate date, String notes) {
+        return new Expense(name, category, date, notes, cents);
+    }
+
+    public String getName() { return name; }
+    public String getCategory() { return category; }
+    public double getAmount() { return ExpenseMoney.toAmount(cents); }
+    public long getCents() { return cents; }
+    public LocalDate getDate() { return date; }
+    public String getNotes() { return notes; }
+
+    @Override
+    public String toString() {
+        return ExpenseCsvWriter.record(new StringBuilder(64), name, category, cents, date, notes).toString();
+    }
+}
@@ -0,0 +1,92 @@
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals per category and per (year, month, category).
+ * Updated in O(1) on every insert so reports never rescan the expenses.
+ * Cells are striped adders of exact cents in concurrent maps, so any number of threads can add
+ * and read without locking, and totals come out the same whatever order rows arrive in.
+ */
+class ExpenseAggregates {
+
+    /** Striped sum cell so updates neither box a Double nor contend on one field. */
+    static final class Total {
+        final LongAdder cents = new LongAdder();
+        final LongAdder count = new LongAdder();
+    }
+
+    private final Map<String, Total> byCategory = new ConcurrentHashMap<>();
+    private final Map<YearMonth, Map<String, Total>> byMonth = new ConcurrentHashMap<>();
+    private final Total grand = new Total();
+
+    void add(String category, long cents, LocalDate date) {
+        bump(byCategory.computeIfAbsent(category, k -> new Total()), cents);
+        Map<String, Total> month = byMonth.computeIfAbsent(YearMonth.from(date), k -> new ConcurrentHashMap<>());
+        bump(month.computeIfAbsent(category, k -> new Total()), cents);
+        bump(grand, cents);
+    }
+
+    /** Folds in {@code count} expenses of one category and month at once (e.g. from a partition footer). */
+    void addAll(String category, YearMonth month, long cents, long count) {
+        if (count == 0) return;
+        bumpAll(byCategory.computeIfAbsent(category, k -> new Total()), cents, count);
+        Map<String, Total> m = byMonth.computeIfAbsent(month, k -> new ConcurrentHashMap<>());
+        bumpAll(m.computeIfAbsent(category, k -> new Total()), cents, count);
+        bumpAll(grand, cents, count);
+    }
+
+    private static void bumpAll(Total t, long cents, long count) {
+        t.cents.add(cents);
+        t.count.add(count);
+    }
+
+    private static void bump(Total t, long cents) {
+        t.cents.add(cents);
+        t.count.increment();
+    }
+
+    /* ------------ Reads ------------ */
+
+    double total() { return ExpenseMoney.toAmount(grand.cents.sum()); }
+    long totalCents() { return grand.cents.sum(); }
+    long count() { return grand.count.sum(); }
+
+    Map<String, Double> categoryTotals() {
+        return toMap(byCategory);
+    }
+
+    Map<String, Double> monthTotals(int month, int year) {
+        Map<String, Total> m = month(month, year);
+        return m == null ? new HashMap<>() : toMap(m);
+    }
+
+    long monthCount(int month, int year) {
+        Map<String, Total> m = month(month, year);
+        if (m == null) return 0;
+        long n = 0;
+        for (Total t : m.values()) n += t.count.sum();
+        return n;
+    }
+
+    long monthCents(int month, int year) {
+        Map<String, Total> m = month(month, year);
+        if (m == null) return 0;
+        long c = 0;
+        for (Total t : m.values()) c += t.cents.sum();
+        return c;
+    }
+
+    private Map<String, Total> month(int month, int year) {
+        if (month < 1 || month > 12) return null;
+        return byMonth.get(YearMonth.of(year, month));
+    }
+
+    private static Map<String, Double> toMap(Map<String, Total> totals) {
+        Map<String, Double> map = new HashMap<>();
+        for (Map.Entry<String, Total> en : totals.entrySet()) map.put(en.getKey(), ExpenseMoney.toAmount(en.getValue().cents.sum()));
+        return map;
+    }
+}
@@ -0,0 +1,419 @@
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmarks for the ExpenseManager hot paths, with no dependencies beyond the JDK.
+ *
+ * Usage: java ExpenseBenchmark [--sizes 10000,1000000] [--threads 1,2,4,8] [--warmup 3]
+ *            [--iterations 5] [--time-ms 500] [--out bench-results.json] [--baseline old.json]
+ *
+ * For every ledger size a generated expenses.csv is written to a scratch directory (the real
+ * ledger is never touched) and each benchmark runs warmup plus measured iterations of at least
+ * --time-ms. An iteration reports throughput, bytes allocated per operation by all live threads
+ * and the GC count and pause time it caused, the same figures JMH's gc profiler gives. Results
+ * go to a JSON file, one result per line, and --baseline compares them with an earlier run.
+ * 10M-row ledgers need --sizes 10000000 and a heap of a few GB. -Dexpense.* options such as
+ * storage or lazy loading apply as usual, except the result cache, which is always off so the
+ * repeated searches measure the query and not a cache hit.
+ */
+public class ExpenseBenchmark {
+    private static final String RESET = "\u001B[0m";
+    private static final String RED = "\u001B[31m";
+    private static final String GREEN = "\u001B[32m";
+    private static final String CYAN = "\u001B[36m";
+
+    private static final String[] CATEGORIES = {"Food", "Transport", "Bills", "Entertainment", "Misc"};
+    private static final double[] WEIGHTS = {0.35, 0.20, 0.12, 0.18, 0.15};
+    private static final double[] MEDIAN = {15, 10, 80, 30, 20};
+    private static final String[][] MERCHANTS = {
+            {"Grocery", "Cafe", "Restaurant", "Bakery", "Takeaway"},
+            {"Bus pass", "Taxi", "Fuel", "Train", "Parking"},
+            {"Electricity", "Water", "Internet", "Phone", "Rent"},
+            {"Cinema", "Concert", "Streaming", "Games", "Books"},
+            {"Pharmacy", "Gift", "Haircut", "Hardware", "Stationery"}};
+    private static final String[] NOTES = {"coffee with team", "weekly groceries", "monthly pass", "birthday gift",
+            "late night snack", "paid by card", "shared with flatmates", "annual renewal"};
+    private static final String[] KEYWORDS = {"coffee", "gift", "pass", "card", "snack"};
+
+    private static final Pattern RESULT = Pattern.compile(
+            "\"benchmark\": \"(\\w+)\", \"rows\": (\\d+), \"threads\": (\\d+), \"opsPerSec\": ([-0-9.eE+]+)");
+
+    /** One benchmark at one ledger size and thread count. */
+    static final class Result {
+        final String benchmark;
+        final int rows;
+        final int threads;
+        final double[] opsPerSec;
+        final double allocBytesPerOp;
+        final long gcCount;
+        final long gcMillis;
+
+        Result(String benchmark, int rows, int threads, double[] opsPerSec, double allocBytesPerOp, long gcCount, long gcMillis) {
+            this.benchmark = benchmark;
+            this.rows = rows;
+            this.threads = threads;
+            this.opsPerSec = opsPerSec;
+            this.allocBytesPerOp = allocBytesPerOp;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        double mean() {
+            return Arrays.stream(opsPerSec).average().orElse(0);
+        }
+
+        double stdev() {
+            double m = mean(), sq = 0;
+            for (double v : opsPerSec) sq += (v - m) * (v - m);
+            return opsPerSec.length < 2 ? 0 : Math.sqrt(sq / (opsPerSec.length - 1));
+        }
+
+        String key() {
+            return benchmark + "/" + rows + "/" + threads;
+        }
+    }
+
+    /** Runs the measured code until the deadline and returns the number of operations done. */
+    private interface Body {
+        long run(long deadline) throws Exception;
+    }
+
+    private final int warmup;
+    private final int iterations;
+    private final long iterationNanos;
+    private final List<Result> results = new ArrayList<>();
+    private final PrintStream console = System.out;
+    private final PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    ExpenseBenchmark(int warmup, int iterations, long iterationMillis) {
+        this.warmup = warmup;
+        this.iterations = iterations;
+        this.iterationNanos = iterationMillis * 1_000_000L;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) usage();
+            opt.put(args[i].substring(2), args[i + 1]);
+        }
+        if (args.length % 2 != 0) usage();
+        int[] sizes = ints(opt.getOrDefault("sizes", "10000,1000000"));
+        int[] threadCounts = ints(opt.getOrDefault("threads", "1,2,4,8"));
+        ExpenseBenchmark bench = new ExpenseBenchmark(Integer.parseInt(opt.getOrDefault("warmup", "3")),
+                Integer.parseInt(opt.getOrDefault("iterations", "5")), Long.parseLong(opt.getOrDefault("time-ms", "500")));
+        Path out = Paths.get(opt.getOrDefault("out", "bench-results.json"));
+
+        Path scratch = Files.createTempDirectory("expense-bench");
+        try {
+            for (int rows : sizes) bench.runAll(scratch.resolve("rows-" + rows), rows, threadCounts);
+        } finally {
+            deleteTree(scratch);
+        }
+        bench.write(out);
+        System.out.println(GREEN + "Results written to " + out + RESET);
+        if (opt.containsKey("baseline")) bench.compare(Paths.get(opt.get("baseline")));
+    }
+
+    private static void usage() {
+        System.out.println("Usage: java ExpenseBenchmark [--sizes 10000,1000000] [--threads 1,2,4,8] [--warmup 3]"
+                + " [--iterations 5] [--time-ms 500] [--out bench-results.json] [--baseline old.json]");
+        System.exit(2);
+    }
+
+    private static int[] ints(String csv) {
+        return Arrays.stream(csv.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+    }
+
+    /* ------------ Benchmarks ------------ */
+
+    private void runAll(Path dir, int rows, int[] threadCounts) throws Exception {
+        Files.createDirectories(dir);
+        System.setProperty("expense.dir", dir.toString());
+        System.setProperty("expense.resultCacheMB", "0"); // the searches below repeat their queries
+        LocalDate last = LocalDate.now();
+        LocalDate first = generate(dir.resolve("expenses.csv"), rows, last, 42);
+        System.out.println(CYAN + "\n--- " + rows + " rows (" + first + " to " + last + ") ---" + RESET);
+        header();
+
+        measure("loadExpenses", rows, 1, deadline -> {
+            long n = 0;
+            do {
+                new ExpenseManager().close();
+                n++;
+            } while (System.nanoTime() < deadline);
+            return n;
+        });
+
+        ExpenseManager m = new ExpenseManager();
+        try {
+            measure("categoryTotals", rows, 1, deadline -> {
+                long n = 0;
+                do {
+                    if (m.getCategoryTotals().isEmpty()) throw new IllegalStateException("no totals");
+                    n++;
+                } while (System.nanoTime() < deadline);
+                return n;
+            });
+            measure("searchByKeyword", rows, 1, deadline -> {
+                long n = 0;
+                do m.searchByKeyword(KEYWORDS[(int) (n++ % KEYWORDS.length)]);
+                while (System.nanoTime() < deadline);
+                return n;
+            });
+            Random random = new Random(7);
+            int span = (int) (last.toEpochDay() - first.toEpochDay());
+            measure("searchByDateRange", rows, 1, deadline -> {
+                long n = 0;
+                do {
+                    LocalDate from = first.plusDays(random.nextInt(Math.max(1, span - 30)));
+                    m.searchByDateRange(from, from.plusDays(30));
+                    n++;
+                } while (System.nanoTime() < deadline);
+                return n;
+            });
+            measure("showTopExpenses", rows, 1, deadline -> {
+                long n = 0;
+                do {
+                    m.showTopExpenses(10);
+                    n++;
+                } while (System.nanoTime() < deadline);
+                return n;
+            });
+            String export = dir.resolve("export.csv").toString();
+            measure("exportAllToCsv", rows, 1, deadline -> {
+                long n = 0;
+                do {
+                    if (!m.exportAllToCsv(export, ExpenseManager.Progress.NONE)) throw new IOException("export failed");
+                    n++;
+                } while (System.nanoTime() < deadline);
+                return n;
+            });
+            // the same per-category totals two ways: boxed doubles merged into a map, as reports
+            // used to add them up, and one pass of the keyed long-cents kernel over primitive
+            // columns, as the lazy load totals the history it leaves on disk; then the grand
+            // total with the contiguous kernel, the one loop of the three C2 vectorizes
+            ExpenseStore snap = m.snapshot();
+            long[] cents = new long[snap.size()];
+            short[] ids = new short[snap.size()];
+            for (int r = 0; r < snap.size(); r++) {
+                cents[r] = snap.cents(r);
+                ids[r] = (short) snap.categoryId(r);
+            }
+            int categories = snap.categoryDictionary().size();
+            measure("sumBoxedDouble", rows, 1, deadline -> {
+                long n = 0;
+                do {
+                    Map<String, Double> totals = new HashMap<>();
+                    for (int r = 0; r < snap.size(); r++) totals.merge(snap.category(r), snap.amount(r), Double::sum);
+                    if (totals.isEmpty()) throw new IllegalStateException("no totals");
+                    n++;
+                } while (System.nanoTime() < deadline);
+                return n;
+            });
+            measure("sumCentsByKey", rows, 1, deadline -> {
+                long n = 0;
+                do {
+                    long[] totals = new long[categories];
+                    long[] counts = new long[categories];
+                    ExpenseMoney.sumByKey(cents, ids, 0, cents.length, totals, counts);
+                    if (counts.length == 0) throw new IllegalStateException("no totals");
+                    n++;
+                } while (System.nanoTime() < deadline);
+                return n;
+            });
+            long grand = snap.totalCents();
+            measure("sumCentsColumn", rows, 1, deadline -> {
+                long n = 0;
+                do {
+                    if (ExpenseMoney.sum(cents, 0, cents.length) != grand) throw new IllegalStateException("wrong total");
+                    n++;
+                } while (System.nanoTime() < deadline);
+                return n;
+            });
+            // writes last, since they grow the ledger the reads above ran against
+            for (int t : threadCounts) ingest(m, rows, t, last);
+        } finally {
+            m.close();
+        }
+    }
+
+    // addExpense from t threads at once; t = 1 is the plain single-writer insert path
+    private void ingest(ExpenseManager m, int rows, int t, LocalDate day) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(t);
+        try {
+            measure(t == 1 ? "addExpense" : "concurrentIngest", rows, t, deadline -> {
+                List<Future<Long>> done = new ArrayList<>();
+                for (int w = 0; w < t; w++) {
+                    int worker = w;
+                    done.add(pool.submit(() -> {
+                        Random r = new Random(worker);
+                        long n = 0;
+                        do {
+                            int c = category(r);
+                            m.addExpense(MERCHANTS[c][r.nextInt(5)], CATEGORIES[c], amount(r, c), day, "");
+                            n++;
+                        } while (System.nanoTime() < deadline);
+                        return n;
+                    }));
+                }
+                long n = 0;
+                for (Future<Long> f : done) n += f.get();
+                return n;
+            });
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void measure(String name, int rows, int threadCount, Body body) throws Exception {
+        double[] samples = new double[iterations];
+        long ops = 0, alloc = 0, gcCount = 0, gcMillis = 0;
+        System.setOut(discard); // the manager reports to the console; formatting is still measured
+        try {
+            for (int i = -warmup; i < iterations; i++) {
+                long[] gc0 = gc();
+                long alloc0 = allocated();
+                long t0 = System.nanoTime();
+                long n = body.run(t0 + iterationNanos);
+                long elapsed = System.nanoTime() - t0;
+                long alloc1 = allocated();
+                long[] gc1 = gc();
+                if (i < 0) continue;
+                samples[i] = n * 1e9 / elapsed;
+                ops += n;
+                alloc += alloc1 - alloc0;
+                gcCount += gc1[0] - gc0[0];
+                gcMillis += gc1[1] - gc0[1];
+            }
+        } finally {
+            System.setOut(console);
+        }
+        Result res = new Result(name, rows, threadCount, samples, ops == 0 ? 0 : (double) alloc / ops, gcCount, gcMillis);
+        results.add(res);
+        row(res);
+    }
+
+    // bytes allocated so far by the threads alive now, which include pool workers and the journal thread
+    private long allocated() {
+        long sum = 0;
+        for (long b : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (b > 0) sum += b;
+        }
+        return sum;
+    }
+
+    private static long[] gc() {
+        long count = 0, millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, millis};
+    }
+
+    /* ------------ Ledger generation ------------ */
+
+    /**
+     * Writes {@code rows} expenses in roughly chronological order ending at {@code last}, about 40 a
+     * day, with weighted categories, log-normal amounts around a per-category median, bills
+     * early in the month and a note on a third of the rows. Returns the first date.
+     */
+    static LocalDate generate(Path file, int rows, LocalDate last, long seed) throws IOException {
+        Random r = new Random(seed);
+        int days = Math.max(30, rows / 40);
+        LocalDate first = last.minusDays(days - 1);
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < rows; i++) {
+                int c = category(r);
+                long day = first.toEpochDay() + (long) i * days / rows;
+                LocalDate date = LocalDate.ofEpochDay(day);
+                if (CATEGORIES[c].equals("Bills")) date = date.withDayOfMonth(1 + r.nextInt(5));
+                String notes = r.nextInt(3) == 0 ? NOTES[r.nextInt(NOTES.length)] : "";
+                w.write(MERCHANTS[c][r.nextInt(5)] + " " + r.nextInt(200) + "," + CATEGORIES[c] + ","
+                        + amount(r, c) + "," + date + "," + notes);
+                w.write('\n');
+            }
+        }
+        return first;
+    }
+
+    private static int category(Random r) {
+        double x = r.nextDouble();
+        for (int c = 0; c < WEIGHTS.length - 1; c++) {
+            if ((x -= WEIGHTS[c]) < 0) return c;
+        }
+        return WEIGHTS.length - 1;
+    }
+
+    private static double amount(Random r, int c) {
+        return Math.round(MEDIAN[c] * Math.exp(0.8 * r.nextGaussian()) * 100) / 100.0;
+    }
+
+    /* ------------ Reporting ------------ */
+
+    private void header() {
+        System.out.printf("%-18s %7s %14s %10s %14s %6s %8s\n", "Benchmark", "Threads", "ops/s", "stdev", "alloc B/op", "GCs", "GC ms");
+    }
+
+    private void row(Result r) {
+        System.out.printf("%-18s %7d %14.2f %10.2f %14.0f %6d %8d\n",
+                r.benchmark, r.threads, r.mean(), r.stdev(), r.allocBytesPerOp, r.gcCount, r.gcMillis);
+    }
+
+    private void write(Path out) throws IOException {
+        StringBuilder sb = new StringBuilder("{\n");
+        sb.append("  \"date\": \"").append(LocalDateTime.now().withNano(0)).append("\",\n");
+        sb.append("  \"jvm\": \"").append(System.getProperty("java.vm.name")).append(' ').append(System.getProperty("java.version")).append("\",\n");
+        sb.append("  \"cpus\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        sb.append("  \"storage\": \"").append(ExpenseConfig.storage()).append("\", \"lazy\": ").append(ExpenseConfig.lazyLoading()).append(",\n");
+        sb.append("  \"warmup\": ").append(warmup).append(", \"iterations\": ").append(iterations)
+                .append(", \"iterationMillis\": ").append(iterationNanos / 1_000_000).append(",\n");
+        sb.append("  \"results\": [\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            sb.append(String.format(Locale.ROOT,
+                    "    {\"benchmark\": \"%s\", \"rows\": %d, \"threads\": %d, \"opsPerSec\": %.3f, \"stdev\": %.3f, "
+                            + "\"allocBytesPerOp\": %.1f, \"gcCount\": %d, \"gcMillis\": %d, \"samples\": %s}%s\n",
+                    r.benchmark, r.rows, r.threads, r.mean(), r.stdev(), r.allocBytesPerOp, r.gcCount, r.gcMillis,
+                    Arrays.toString(r.opsPerSec), i + 1 < results.size() ? "," : ""));
+        }
+        sb.append("  ]\n}\n");
+        Files.write(out, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Prints the change against an earlier results file; more than 10% slower is flagged. */
+    private void compare(Path baseline) throws IOException {
+        Map<String, Double> before = new HashMap<>();
+        for (String line : Files.readAllLines(baseline, StandardCharsets.UTF_8)) {
+            Matcher mt = RESULT.matcher(line);
+            if (mt.find()) before.put(mt.group(1) + "/" + mt.group(2) + "/" + mt.group(3), Double.parseDouble(mt.group(4)));
+        }
+        System.out.println(CYAN + "\n--- Compared with " + baseline + " ---" + RESET);
+        for (Result r : results) {
+            Double old = before.get(r.key());
+            if (old == null || old == 0) continue;
+            double change = (r.mean() - old) / old * 100;
+            String color = change < -10 ? RED : (change > 10 ? GREEN : "");
+            System.out.printf("%s%-18s %10d rows %3d threads %+8.1f%%%s\n", color, r.benchmark, r.rows, r.threads, change, color.isEmpty() ? "" : RESET);
+        }
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) return;
+        try (java.util.stream.Stream<Path> walk = Files.walk(root)) {
+            for (Path p : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) Files.deleteIfExists(p);
+        }
+    }
+}
@@ -0,0 +1,391 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Function;
+import java.util.zip.CRC32C;
+
+/**
+ * Compact binary expense snapshot, read through a memory map.
+ *
+ * Layout (little-endian):
+ * <pre>
+ *   header   magic "EXPB", version, seq (long), rows, categories, heap bytes, CRC32C of the rest
+ *   dict     one heap offset per category id
+ *   records  RECORD bytes per row: amount in cents (long), epoch day (int), category id (short),
+ *            pad, name offset (int), notes offset (int)
+ *   heap     length-prefixed UTF-8 strings, each distinct string stored once
+ *   footer   (version 2+) total in cents (long) and row count (long) per category id
+ * </pre>
+ * Versions 1 and 2 stored amounts and footer totals as doubles; they are still read, converted
+ * to cents as they are decoded, and are rewritten as version 3 by the next compaction.
+ * Opening a file only maps it and checks the header and checksum; rows are decoded when read,
+ * so numeric columns can be scanned without touching the strings at all. Strings are
+ * length-prefixed rather than comma-separated, so the file itself never mangles names or notes.
+ */
+class ExpenseBinaryFile extends AbstractList<Expense> implements RandomAccess {
+    static final int MAGIC = 0x42505845; // "EXPB" read little-endian
+    static final int VERSION = 3;
+    static final int HEADER = 32;
+    static final int RECORD = 24;
+
+    private static final int BUFFER = 1 << 16;
+
+    private final Path path;
+    private final ByteBuffer buf;
+    private final long seq;
+    private final int rows;
+    private final int recordsAt;
+    private final int heapAt;
+    private final int footerAt;     // -1 for version 1 files, which have no totals
+    private final boolean centsColumn; // false for versions 1 and 2, whose amounts are doubles
+    private final String[] dict;
+
+    private ExpenseBinaryFile(Path path, ByteBuffer buf) throws IOException {
+        this.path = path;
+        this.buf = buf;
+        if (buf.capacity() < HEADER || buf.getInt(0) != MAGIC) throw new IOException(path + " is not an expense binary file");
+        int version = buf.getInt(4);
+        if (version < 1 || version > VERSION) throw new IOException(path + " has unsupported version " + version);
+        centsColumn = version >= 3;
+        seq = buf.getLong(8);
+        rows = buf.getInt(16);
+        int categories = buf.getInt(20);
+        int heapBytes = buf.getInt(24);
+        recordsAt = HEADER + categories * 4;
+        heapAt = recordsAt + rows * RECORD;
+        footerAt = version == 1 ? -1 : heapAt + heapBytes;
+        long end = (long) heapAt + heapBytes + (version == 1 ? 0 : categories * 16L);
+        if (rows < 0 || categories < 0 || heapBytes < 0 || end != buf.capacity()) {
+            throw new IOException(path + " is truncated or corrupt");
+        }
+        dict = new String[categories];
+        for (int i = 0; i < categories; i++) dict[i] = string(buf.getInt(HEADER + i * 4));
+    }
+
+    /** Maps {@code file} read-only and validates it, checksum included; no rows are decoded yet. */
+    static ExpenseBinaryFile open(Path file) throws IOException {
+        return open(file, true);
+    }
+
+    /**
+     * Maps {@code file}, checking only the header and layout when {@code verify} is false, so
+     * nothing beyond the header, dictionary and footer is read; call {@link #verify()} before
+     * trusting the rows.
+     */
+    static ExpenseBinaryFile open(Path file, boolean verify) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) throw new IOException(file + " is too large to map");
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            ExpenseBinaryFile f = new ExpenseBinaryFile(file, map.order(ByteOrder.LITTLE_ENDIAN));
+            if (verify) f.verify();
+            return f;
+        }
+    }
+
+    /** Checks the CRC32C over everything after the header. */
+    void verify() throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(buf.duplicate().position(HEADER));
+        if ((int) crc.getValue() != buf.getInt(28)) throw new IOException(path + " failed its checksum");
+    }
+
+    /** The snapshot sequence number from the header, without mapping or checking the file. */
+    static long seq(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && ch.read(header) >= 0) {}
+            if (header.position() < HEADER || header.getInt(0) != MAGIC) throw new IOException(file + " is not an expense binary file");
+            return header.getLong(8);
+        }
+    }
+
+    /* ------------ Lazy row access ------------ */
+
+    long seq() { return seq; }
+
+    @Override public int size() { return rows; }
+
+    long cents(int row) { return cents(record(row), centsColumn); }
+    double amount(int row) { return ExpenseMoney.toAmount(cents(row)); }
+    int epochDay(int row) { return buf.getInt(record(row) + 8); }
+    int categoryId(int row) { return buf.getShort(record(row) + 12); }
+    String category(int row) { return dict[categoryId(row)]; }
+    String name(int row) { return string(buf.getInt(record(row) + 16)); }
+    String notes(int row) { return string(buf.getInt(record(row) + 20)); }
+
+    List<String> categoryDictionary() { return Collections.unmodifiableList(Arrays.asList(dict)); }
+
+    /** True when the footer carries per-category totals (every file written since version 2). */
+    boolean hasTotals() { return footerAt >= 0; }
+    long categoryCents(int id) {
+        int at = footerAt + id * 16;
+        return centsColumn ? buf.getLong(at) : Math.round(buf.getDouble(at) * 100);
+    }
+    long categoryCount(int id) { return buf.getLong(footerAt + id * 16 + 8); }
+
+    Path path() { return path; }
+
+    @Override
+    public Expense get(int row) {
+        return Expense.ofCents(name(row), category(row), cents(row), LocalDate.ofEpochDay(epochDay(row)), notes(row));
+    }
+
+    private int record(int row) {
+        Objects.checkIndex(row, rows);
+        return recordsAt + row * RECORD;
+    }
+
+    private long cents(int at, boolean exact) {
+        return exact ? buf.getLong(at) : ExpenseMoney.toCents(buf.getDouble(at));
+    }
+
+    private String string(int offset) {
+        int at = heapAt + offset;
+        byte[] b = new byte[buf.getInt(at)];
+        buf.get(at + 4, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Streams every row into {@code sink} in file order; {@code seq} is the row number. Each
+     * distinct heap string is decoded once, so repeated names and notes share one instance.
+     */
+    ExpenseCsvReader.Stats read(ExpenseCsvReader.RowSink sink) {
+        return read(Integer.MIN_VALUE, sink, null);
+    }
+
+    /**
+     * Like {@link #read(ExpenseCsvReader.RowSink)}, but rows dated before {@code fromDay} are only
+     * collected into {@code skipped} (by row number) without decoding their strings.
+     */
+    ExpenseCsvReader.Stats read(int fromDay, ExpenseCsvReader.RowSink sink, IntList skipped) {
+        long start = System.nanoTime();
+        Map<Integer, String> decoded = new HashMap<>();
+        boolean exact = centsColumn;
+        int loaded = 0;
+        for (int row = 0; row < rows; row++) {
+            int at = recordsAt + row * RECORD;
+            int day = buf.getInt(at + 8);
+            if (day < fromDay) {
+                skipped.add(row);
+                continue;
+            }
+            String name = decoded.computeIfAbsent(buf.getInt(at + 16), this::string);
+            String notes = decoded.computeIfAbsent(buf.getInt(at + 20), this::string);
+            sink.row(row, name, dict[buf.getShort(at + 12)], cents(at, exact), day, notes);
+            loaded++;
+        }
+        ExpenseCsvReader.Stats stats = new ExpenseCsvReader.Stats();
+        stats.bytes = buf.capacity();
+        stats.lines = rows;
+        stats.rows = loaded;
+        stats.nanos = System.nanoTime() - start;
+        return stats;
+    }
+
+    /** Decodes the file rows {@code ids[from, to)} into a new store, in that order. */
+    ExpenseStore load(int[] ids, int from, int to) {
+        ExpenseStore out = new ExpenseStore(Math.max(1, to - from));
+        for (int i = from; i < to; i++) {
+            int row = ids[i];
+            out.appendUnpublished(name(row), category(row), cents(row), epochDay(row), notes(row));
+        }
+        out.publish();
+        return out;
+    }
+
+    /** Some rows of a file ({@code rows} null = all of them), e.g. the part a lazy load left on disk. */
+    static final class Slice {
+        final ExpenseBinaryFile file;
+        final int[] rows;
+
+        Slice(ExpenseBinaryFile file, int[] rows) {
+            this.file = file;
+            this.rows = rows;
+        }
+
+        int size() { return rows == null ? file.size() : rows.length; }
+        int row(int i) { return rows == null ? i : rows[i]; }
+
+        /**
+         * Copies the amount, category id and day of entries [from, to) into the arrays from index
+         * 0, straight from the fixed-width records; no strings are decoded.
+         */
+        void numericColumns(int from, int to, long[] cents, short[] categoryIds, int[] days) {
+            for (int i = from; i < to; i++) {
+                int row = row(i);
+                cents[i - from] = file.cents(row);
+                categoryIds[i - from] = (short) file.categoryId(row);
+                days[i - from] = file.epochDay(row);
+            }
+        }
+
+        /** Decodes entries [from, to) of the slice into a new store. */
+        ExpenseStore load(int from, int to) {
+            ExpenseStore out = new ExpenseStore(Math.max(1, to - from));
+            for (int i = from; i < to; i++) {
+                int row = row(i);
+                out.appendUnpublished(file.name(row), file.category(row), file.cents(row), file.epochDay(row), file.notes(row));
+            }
+            out.publish();
+            return out;
+        }
+    }
+
+    /* ------------ Writing ------------ */
+
+    /** Writes rows [0, rows.size()) of {@code rows} to {@code file}, tagged with snapshot {@code seq}. */
+    static void write(Path file, ExpenseStore rows, long seq) throws IOException {
+        write(file, Collections.singletonList(rows), seq);
+    }
+
+    /**
+     * Writes the rows of every part, in order, as one file. {@code parts} is walked twice (heap
+     * layout, then records), so it may decode its stores lazily to keep memory bounded.
+     */
+    static void write(Path file, List<ExpenseStore> parts, long seq) throws IOException {
+        // lay out the dictionary and the heap first so records can point into them
+        Map<String, Integer> dict = new LinkedHashMap<>();
+        Map<String, Integer> heap = new LinkedHashMap<>();
+        long[] heapBytes = {0};
+        Function<String, Integer> place = s -> {
+            int at = (int) heapBytes[0];
+            heapBytes[0] += 4 + s.getBytes(StandardCharsets.UTF_8).length;
+            return at;
+        };
+        long n = 0;
+        for (ExpenseStore rows : parts) {
+            for (String c : rows.categoryDictionary()) {
+                if (!dict.containsKey(c)) {
+                    dict.put(c, dict.size());
+                    heap.computeIfAbsent(c, place);
+                }
+            }
+            for (int r = 0; r < rows.size(); r++) {
+                heap.computeIfAbsent(rows.name(r), place);
+                heap.computeIfAbsent(rows.notes(r), place);
+            }
+            n += rows.size();
+            if (heapBytes[0] > Integer.MAX_VALUE) throw new IOException("Ledger too large for the binary format");
+        }
+        if (HEADER + dict.size() * 20L + n * RECORD + heapBytes[0] > Integer.MAX_VALUE) {
+            throw new IOException("Ledger too large for the binary format");
+        }
+
+        long[] sums = new long[dict.size()];
+        long[] counts = new long[dict.size()];
+        CRC32C crc = new CRC32C();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer out = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+            ch.position(HEADER);
+            for (String c : dict.keySet()) {
+                if (out.remaining() < 4) flush(ch, out, crc);
+                out.putInt(heap.get(c));
+            }
+            for (ExpenseStore rows : parts) {
+                List<String> local = rows.categoryDictionary();
+                short[] remap = new short[local.size()];
+                for (int i = 0; i < remap.length; i++) remap[i] = dict.get(local.get(i)).shortValue();
+                for (int r = 0; r < rows.size(); r++) {
+                    if (out.remaining() < RECORD) flush(ch, out, crc);
+                    short id = remap[rows.categoryId(r)];
+                    long cents = rows.cents(r);
+                    sums[id] += cents;
+                    counts[id]++;
+                    out.putLong(cents)
+                            .putInt(rows.epochDay(r))
+                            .putShort(id)
+                            .putShort((short) 0)
+                            .putInt(heap.get(rows.name(r)))
+                            .putInt(heap.get(rows.notes(r)));
+                }
+            }
+            for (String s : heap.keySet()) {
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                if (out.remaining() < 4) flush(ch, out, crc);
+                out.putInt(b.length);
+                for (int i = 0; i < b.length; ) {
+                    if (!out.hasRemaining()) flush(ch, out, crc);
+                    int len = Math.min(out.remaining(), b.length - i);
+                    out.put(b, i, len);
+                    i += len;
+                }
+            }
+            for (int id = 0; id < sums.length; id++) {
+                if (out.remaining() < 16) flush(ch, out, crc);
+                out.putLong(sums[id]).putLong(counts[id]);
+            }
+            flush(ch, out, crc);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(seq).putInt((int) n).putInt(dict.size())
+                    .putInt((int) heapBytes[0]).putInt((int) crc.getValue()).flip();
+            while (header.hasRemaining()) ch.write(header, header.position());
+            ch.force(true);
+        }
+    }
+
+    private static void flush(FileChannel ch, ByteBuffer out, CRC32C crc) throws IOException {
+        out.flip();
+        crc.update(out.duplicate());
+        while (out.hasRemaining()) ch.write(out);
+        out.clear();
+    }
+
+    /* ------------ CSV <-> binary converter ------------ */
+
+    /** Converts an expenses.csv snapshot (headerless, optional "#seq,N" line) into a binary file. */
+    static ExpenseCsvReader.Stats csvToBinary(Path csv, Path bin) throws IOException {
+        ExpenseStore rows = new ExpenseStore();
+        long[] seq = {0};
+        ExpenseCsvReader.Stats stats = new ExpenseCsvReader(false).read(csv, new ExpenseCsvReader.RowSink() {
+            @Override public void row(long s, String name, String category, long cents, int day, String notes) {
+                rows.appendUnpublished(name, category, cents, day, notes);
+            }
+            @Override public void directive(String line) {
+                if (line.startsWith("#seq,")) seq[0] = Long.parseLong(line.substring(5).trim());
+            }
+        });
+        rows.publish();
+        write(bin, rows, seq[0]);
+        return stats;
+    }
+
+    /** Converts a binary file back into the expenses.csv snapshot layout. */
+    static int binaryToCsv(Path bin, Path csv) throws IOException {
+        ExpenseBinaryFile in = open(bin);
+        try (Writer w = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+            w.write("#seq," + in.seq() + "\n");
+            StringBuilder sb = new StringBuilder(128);
+            for (Expense e : in) {
+                sb.setLength(0);
+                ExpenseCsvWriter.record(sb, e.getName(), e.getCategory(), e.getCents(), e.getDate(), e.getNotes());
+                w.append(sb).write('\n');
+            }
+        }
+        return in.size();
+    }
+
+    /** {@code java ExpenseBinaryFile to-bin expenses.csv expenses.bin} or {@code to-csv expenses.bin expenses.csv}. */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 3 && args[0].equals("to-bin")) {
+            System.out.println("Converted " + csvToBinary(Paths.get(args[1]), Paths.get(args[2])));
+        } else if (args.length == 3 && args[0].equals("to-csv")) {
+            System.out.println("Converted " + binaryToCsv(Paths.get(args[1]), Paths.get(args[2])) + " rows");
+        } else {
+            System.out.println("Usage: java ExpenseBinaryFile to-bin <in.csv> <out.bin> | to-csv <in.bin> <out.csv>");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path + " (" + rows + " rows)";
+    }
+}
@@ -0,0 +1,313 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Event-driven budget alerts.
+ *
+ * Spend is counted per category, both for the whole ledger and per calendar month, as the
+ * manager indexes each row. Every budget has a limit and a {@link Period}. The configured
+ * thresholds (fractions of the limit, {@code -Dexpense.alertThresholds}, default 0.8,1.0) are
+ * checked once per insert or batch for each category and period it touched, so a bulk import
+ * raises at most one alert per budget period. An alert fires when spend crosses a threshold it
+ * was at or below, not on every later insert. Alerts reach listeners on one
+ * background thread, in order, so a slow listener never holds up ingestion. Categories match
+ * case-insensitively, as they always have for budgets.
+ */
+class ExpenseBudgets {
+    private static final String RESET = "\u001B[0m";
+    private static final String RED = "\u001B[31m";
+    private static final String YELLOW = "\u001B[33m";
+
+    /** What a budget limits: all spend in the category, or each calendar month's. */
+    enum Period { TOTAL, MONTH }
+
+    /** Traffic-light state of one budget, for views. */
+    enum Status { NO_BUDGET, SAFE, NEAR, EXCEEDED }
+
+    static final class Budget {
+        final String category;
+        final double limit;
+        final Period period;
+
+        Budget(String category, double limit, Period period) {
+            this.category = category;
+            this.limit = limit;
+            this.period = period;
+        }
+    }
+
+    /** A threshold crossing. {@code month} is null for a TOTAL budget. */
+    static final class Alert {
+        final String category;
+        final Period period;
+        final YearMonth month;
+        final double spent;
+        final double limit;
+        final double threshold;
+        final LocalDateTime at = LocalDateTime.now();
+
+        Alert(String category, Period period, YearMonth month, double spent, double limit, double threshold) {
+            this.category = category;
+            this.period = period;
+            this.month = month;
+            this.spent = spent;
+            this.limit = limit;
+            this.threshold = threshold;
+        }
+
+        boolean exceeded() { return threshold >= 1; }
+
+        String message() {
+            String scope = category + (month == null ? "" : " in " + month);
+            String head = exceeded() ? "Budget exceeded for " + scope
+                    : String.format("Nearing budget for %s (%.0f%%)", scope, threshold * 100);
+            return head + String.format(" (Spent: %.2f / %.2f)", spent, limit);
+        }
+
+        @Override
+        public String toString() {
+            return at.withNano(0) + " " + message();
+        }
+    }
+
+    interface Listener {
+        /** Called on the alert thread; must not assume it is the EDT or the inserting thread. */
+        void onAlert(Alert alert);
+    }
+
+    /** Prints alerts as the manager always has: red once exceeded, yellow when nearing. */
+    static Listener consoleListener() {
+        return a -> System.out.println((a.exceeded() ? RED : YELLOW) + "⚠ " + a.message() + RESET);
+    }
+
+    /** Appends one line per alert to {@code file}. */
+    static Listener fileListener(Path file) {
+        return a -> {
+            try {
+                Files.write(file, (a + System.lineSeparator()).getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException ex) {
+                System.out.println(RED + "Could not write alert to " + file + ": " + ex.getMessage() + RESET);
+            }
+        };
+    }
+
+    // spend and the highest threshold already reported, for one period of one category
+    private static final class Counter {
+        final LongAdder cents = new LongAdder();
+        final AtomicInteger level = new AtomicInteger(-1);
+
+        double spent() { return ExpenseMoney.toAmount(cents.sum()); }
+    }
+
+    // all spellings of a category ("Food", "food") share one group
+    private static final class Group {
+        final Counter total = new Counter();
+        final Map<YearMonth, Counter> months = new ConcurrentHashMap<>();
+
+        Counter month(YearMonth m) {
+            return months.computeIfAbsent(m, k -> new Counter());
+        }
+    }
+
+    private final double[] thresholds;
+    private final Map<String, Group> byKey = new ConcurrentHashMap<>();  // lower-case category -> group
+    private final Map<String, Group> byName = new ConcurrentHashMap<>(); // category as stored -> group
+    private final Map<String, Budget> budgets = new ConcurrentHashMap<>(); // lower-case category -> budget
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean armed;
+
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "expense-alerts");
+        t.setDaemon(true);
+        return t;
+    });
+
+    ExpenseBudgets(double[] thresholds) {
+        this.thresholds = thresholds.clone();
+        Arrays.sort(this.thresholds);
+    }
+
+    void addListener(Listener l) { listeners.add(l); }
+
+    void removeListener(Listener l) { listeners.remove(l); }
+
+    /* ------------ Spend ------------ */
+
+    /** Counts spend without alerting; {@link #check} evaluates it once the whole batch is in. */
+    void add(String category, long cents, int epochDay) {
+        Group g = group(category);
+        g.total.cents.add(cents);
+        g.month(YearMonth.from(LocalDate.ofEpochDay(epochDay))).cents.add(cents);
+    }
+
+    /** Folds in a month's spend at once (e.g. from a partition footer); never alerts. */
+    void addAll(String category, YearMonth month, long cents) {
+        Group g = group(category);
+        g.total.cents.add(cents);
+        g.month(month).cents.add(cents);
+    }
+
+    /**
+     * Starts alerting. Whatever is already over a threshold (e.g. after loading the ledger)
+     * counts as reported, so only later crossings fire.
+     */
+    void arm() {
+        for (Map.Entry<String, Group> en : byKey.entrySet()) rearm(en.getKey(), en.getValue());
+        armed = true;
+    }
+
+    private Group group(String category) {
+        Group g = byName.get(category);
+        if (g != null) return g;
+        return byName.computeIfAbsent(category, c -> byKey.computeIfAbsent(key(c), k -> new Group()));
+    }
+
+    private static String key(String category) {
+        return category.toLowerCase(Locale.ROOT);
+    }
+
+    /* ------------ Budgets ------------ */
+
+    /**
+     * Sets (or with {@code limit} <= 0 removes) a category's budget. The new limit is checked
+     * straight away against spend so far (this month's for a MONTH budget), so raising the
+     * limit re-arms it and lowering it below spend alerts.
+     */
+    void setBudget(String category, double limit, Period period) {
+        String k = key(category);
+        if (limit <= 0) budgets.remove(k);
+        else budgets.put(k, new Budget(category, limit, period));
+        Group g = byKey.get(k);
+        if (g == null || !armed) return;
+        rearm(k, g);
+        if (limit > 0) {
+            YearMonth now = YearMonth.now();
+            Counter c = period == Period.TOTAL ? g.total : g.month(now);
+            c.level.set(-1);
+            check(budgets.get(k), c, now);
+        }
+    }
+
+    Budget budget(String category) {
+        return budgets.get(key(category));
+    }
+
+    /** Budgets by the category name they were set with. */
+    Map<String, Budget> budgets() {
+        Map<String, Budget> out = new LinkedHashMap<>();
+        for (Budget b : budgets.values()) out.put(b.category, b);
+        return out;
+    }
+
+    /** Spend the category's budget is measured against: all of it, or the current month's. */
+    double spent(String category) {
+        Budget b = budget(category);
+        Group g = byKey.get(key(category));
+        if (g == null) return 0;
+        if (b == null || b.period == Period.TOTAL) return g.total.spent();
+        Counter m = g.months.get(YearMonth.now());
+        return m == null ? 0 : m.spent();
+    }
+
+    Status status(String category) {
+        Budget b = budget(category);
+        if (b == null) return Status.NO_BUDGET;
+        int level = level(spent(category), b.limit);
+        if (level < 0) return Status.SAFE;
+        return thresholds[level] >= 1 ? Status.EXCEEDED : Status.NEAR;
+    }
+
+    /* ------------ Evaluation ------------ */
+
+    /**
+     * Evaluates the budgets an insert or batch touched: {@code touched} maps each category it
+     * added to to the months it added to. A TOTAL budget is checked once however many rows and
+     * months it got, a MONTH budget once per month, and spellings of one category count once.
+     */
+    void check(Map<String, Set<YearMonth>> touched) {
+        if (!armed) return;
+        Map<String, Set<YearMonth>> seen = new HashMap<>(); // lower-case category -> months checked
+        for (Map.Entry<String, Set<YearMonth>> en : touched.entrySet()) {
+            String k = key(en.getKey());
+            Budget b = budgets.get(k);
+            if (b == null) continue;
+            Group g = byKey.get(k);
+            Set<YearMonth> done = seen.computeIfAbsent(k, x -> new HashSet<>());
+            if (b.period == Period.TOTAL) {
+                if (done.add(null)) check(b, g.total, null); // null stands for the whole ledger
+            } else {
+                for (YearMonth m : en.getValue()) {
+                    if (done.add(m)) check(b, g.month(m), m);
+                }
+            }
+        }
+    }
+
+    // O(thresholds): compare one counter with its budget, fire on an upward crossing
+    private void check(Budget b, Counter c, YearMonth month) {
+        double spent = c.spent();
+        int level = level(spent, b.limit);
+        int seen = c.level.get();
+        while (level > seen) {
+            if (c.level.compareAndSet(seen, level)) {
+                publish(new Alert(b.category, b.period, b.period == Period.TOTAL ? null : month, spent, b.limit, thresholds[level]));
+                return;
+            }
+            seen = c.level.get();
+        }
+        if (level < seen) c.level.compareAndSet(seen, level); // spend went back down (a refund); re-arm
+    }
+
+    private void rearm(String k, Group g) {
+        Budget b = budgets.get(k);
+        double limit = b == null ? 0 : b.limit;
+        g.total.level.set(level(g.total.spent(), limit));
+        for (Counter c : g.months.values()) c.level.set(level(c.spent(), limit));
+    }
+
+    // index of the highest threshold that spend is over, -1 for none
+    private int level(double spent, double limit) {
+        if (limit <= 0) return -1;
+        int level = -1;
+        for (int i = 0; i < thresholds.length; i++) {
+            if (spent > thresholds[i] * limit) level = i;
+        }
+        return level;
+    }
+
+    private void publish(Alert alert) {
+        if (listeners.isEmpty()) return;
+        try {
+            dispatcher.execute(() -> {
+                for (Listener l : listeners) {
+                    try {
+                        l.onAlert(alert);
+                    } catch (RuntimeException ex) {
+                        System.out.println(RED + "Budget alert listener failed: " + ex + RESET);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // closed; alerts after close are dropped
+        }
+    }
+
+    /** Delivers the alerts already queued, then stops the alert thread. */
+    void close() {
+        dispatcher.shutdown();
+        try {
+            dispatcher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
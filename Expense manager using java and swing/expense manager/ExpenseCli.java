@@ -0,0 +1,334 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Headless command line for scripted work (nightly imports, exports, reports) without a display.
+ *
+ * Usage: java ExpenseCli <command> [args] [';' <command> [args]]...
+ *        java ExpenseCli -        (commands from standard input, one per line, '#' comments)
+ *
+ * Commands run in order in one process against one loaded ledger, so a pipeline such as
+ * {@code import new.csv ';' summary ';' export all.csv} pays for startup and loading once. The
+ * whole pipeline is parsed before anything runs; a malformed command exits with status 2 and
+ * nothing done, a command that fails stops the pipeline with status 1. Swing is never touched
+ * (java.awt.headless is set) and the ledger is opened by the first command that needs it, so
+ * {@code help} and {@code convert} never load it. Unless set on the command line, the metrics
+ * bean is not published over JMX and binary/partitioned ledgers load lazily (only recent months
+ * up front, older ones paged in if a command reads them). Other -Dexpense.* options apply as usual.
+ *
+ * Startup is mostly class loading, so the CLI suits AppCDS. Package the classes in a jar (CDS
+ * archives classes from jars only), record an archive once and map it on later runs:
+ * <pre>
+ *   jar cfe expense.jar ExpenseCli *.class
+ *   java -XX:ArchiveClassesAtExit=expense.jsa -jar expense.jar summary
+ *   java -XX:SharedArchiveFile=expense.jsa -jar expense.jar import today.csv ';' summary
+ * </pre>
+ */
+public class ExpenseCli {
+    private static final String RESET = "\u001B[0m";
+    private static final String RED = "\u001B[31m";
+    private static final String GREEN = "\u001B[32m";
+
+    private static final String USAGE = String.join("\n",
+            "Usage: java ExpenseCli <command> [args] [';' <command> [args]]...   or   java ExpenseCli -   (commands on stdin)",
+            "  import <file.csv>                       add the rows of a CSV file",
+            "  export <file.csv[.gz]>                  write every expense",
+            "  export-month <month> <year> <file.csv>  write one month",
+            "  add <name> <category> <amount> [yyyy-MM-dd] [notes]",
+            "  list | summary | chart | budgets        console reports",
+            "  monthly <month> <year>",
+            "  top <n> [category] [<from> <to>]",
+            "  trend <day|week|month|quarter|year> <from> <to> [category]",
+            "  search [category=..] [from=..] [to=..] [min=..] [max=..] [keyword=..]",
+            "  budget <category> <amount> [total|month]",
+            "  stats                                   rows loaded and paging figures",
+            "  convert to-bin|to-csv <in> <out>        convert a snapshot file (no ledger needed)",
+            "  help");
+
+    /** One parsed command; returns false when it failed without throwing. */
+    private interface Step {
+        boolean run(ExpenseCli cli) throws IOException;
+    }
+
+    private ExpenseManager manager; // opened by the first command that needs the ledger
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        defaultProperty("expense.jmx", "false");
+        String storage = System.getProperty("expense.storage", "csv").trim();
+        if (!storage.equalsIgnoreCase("csv")) defaultProperty("expense.lazy", "true"); // lazy csv would switch the ledger to binary
+
+        List<List<String>> commands = args.length == 1 && args[0].equals("-")
+                ? script(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)))
+                : pipeline(args);
+        if (commands.isEmpty()) {
+            System.out.println(USAGE);
+            System.exit(2);
+        }
+        List<Step> steps = new ArrayList<>();
+        for (List<String> words : commands) {
+            try {
+                steps.add(parse(words));
+            } catch (IllegalArgumentException | DateTimeParseException ex) {
+                System.out.println(RED + String.join(" ", words) + ": " + ex.getMessage() + RESET);
+                System.out.println(USAGE);
+                System.exit(2);
+            }
+        }
+        System.exit(new ExpenseCli().run(steps, commands));
+    }
+
+    private static void defaultProperty(String key, String value) {
+        if (System.getProperty(key) == null) System.setProperty(key, value);
+    }
+
+    /* ------------ Running ------------ */
+
+    // 0 when every step succeeded, 1 at the first that did not (the rest are skipped)
+    int run(List<Step> steps, List<List<String>> commands) {
+        int status = 0;
+        try {
+            for (int i = 0; i < steps.size() && status == 0; i++) {
+                long errors = errors();
+                boolean ok;
+                try {
+                    ok = steps.get(i).run(this);
+                } catch (IOException | RuntimeException ex) {
+                    System.out.println(RED + "Error: " + ex.getMessage() + RESET);
+                    ok = false;
+                }
+                // manager operations report failures on the console and count them in the metrics
+                if (!ok || errors() != errors) {
+                    System.out.println(RED + "Stopped at: " + String.join(" ", commands.get(i)) + RESET);
+                    status = 1;
+                }
+            }
+        } finally {
+            if (manager != null) {
+                long errors = errors();
+                manager.close();
+                if (errors() != errors) status = 1; // the final journal flush failed
+            }
+        }
+        return status;
+    }
+
+    private ExpenseManager manager() {
+        if (manager == null) manager = new ExpenseManager();
+        return manager;
+    }
+
+    private static long errors() {
+        long n = 0;
+        for (ExpenseMetrics.Op op : ExpenseMetrics.Op.values()) n += ExpenseMetrics.global().stats(op).errors.sum();
+        return n;
+    }
+
+    /* ------------ Parsing ------------ */
+
+    // argv split on ';' arguments
+    static List<List<String>> pipeline(String[] args) {
+        List<List<String>> out = new ArrayList<>();
+        List<String> cur = new ArrayList<>();
+        for (String a : args) {
+            if (a.equals(";")) {
+                if (!cur.isEmpty()) out.add(cur);
+                cur = new ArrayList<>();
+            } else {
+                cur.add(a);
+            }
+        }
+        if (!cur.isEmpty()) out.add(cur);
+        return out;
+    }
+
+    // one command per line; words split on blanks, "double quotes" keep blanks in a word
+    static List<List<String>> script(BufferedReader in) throws IOException {
+        List<List<String>> out = new ArrayList<>();
+        for (String line; (line = in.readLine()) != null; ) {
+            String t = line.trim();
+            if (t.isEmpty() || t.startsWith("#")) continue;
+            List<String> words = new ArrayList<>();
+            StringBuilder w = new StringBuilder();
+            boolean quoted = false, any = false;
+            for (int i = 0; i < t.length(); i++) {
+                char c = t.charAt(i);
+                if (c == '"') {
+                    quoted = !quoted;
+                    any = true;
+                } else if (!quoted && Character.isWhitespace(c)) {
+                    if (any) words.add(w.toString());
+                    w.setLength(0);
+                    any = false;
+                } else {
+                    w.append(c);
+                    any = true;
+                }
+            }
+            if (any) words.add(w.toString());
+            out.add(words);
+        }
+        return out;
+    }
+
+    private static Step parse(List<String> words) {
+        String cmd = words.get(0).toLowerCase(Locale.ROOT);
+        List<String> a = words.subList(1, words.size());
+        switch (cmd) {
+            case "help":
+                args(a, 0, 0);
+                return cli -> {
+                    System.out.println(USAGE);
+                    return true;
+                };
+            case "import": {
+                args(a, 1, 1);
+                String file = a.get(0);
+                return cli -> { cli.manager().importCsv(file); return true; };
+            }
+            case "export": {
+                args(a, 1, 1);
+                String file = a.get(0);
+                return cli -> cli.manager().exportAllToCsv(file, ExpenseManager.Progress.NONE);
+            }
+            case "export-month": {
+                args(a, 3, 3);
+                int month = month(a.get(0)), year = Integer.parseInt(a.get(1));
+                String file = a.get(2);
+                return cli -> cli.manager().exportMonthlyToCsv(month, year, file, ExpenseManager.Progress.NONE);
+            }
+            case "add": {
+                args(a, 3, 5);
+                String name = a.get(0), category = a.get(1);
+                double amount = amount(a.get(2));
+                long cents = ExpenseMoney.toCents(amount);
+                LocalDate date = a.size() > 3 ? LocalDate.parse(a.get(3)) : LocalDate.now();
+                String notes = a.size() > 4 ? a.get(4) : "";
+                String problem = ExpenseManager.validate(new Expense(name, category, amount, date, notes));
+                if (problem != null) throw new IllegalArgumentException(problem);
+                return cli -> {
+                    cli.manager().addExpense(name, category, amount, date, notes);
+                    System.out.println(GREEN + "Added " + name + " (" + category + ") " + ExpenseMoney.format(cents) + " on " + date + RESET);
+                    return true;
+                };
+            }
+            case "list":
+                args(a, 0, 0);
+                return cli -> { cli.manager().showExpenses(); return true; };
+            case "summary":
+                args(a, 0, 0);
+                return cli -> { cli.manager().showCategorySummary(); return true; };
+            case "chart":
+                args(a, 0, 0);
+                return cli -> { cli.manager().showChart(); return true; };
+            case "budgets":
+                args(a, 0, 0);
+                return cli -> { cli.manager().viewBudgets(); return true; };
+            case "monthly": {
+                args(a, 2, 2);
+                int month = month(a.get(0)), year = Integer.parseInt(a.get(1));
+                return cli -> { cli.manager().showMonthlyReport(month, year); return true; };
+            }
+            case "top": {
+                args(a, 1, 4);
+                int n = Integer.parseInt(a.get(0));
+                if (n < 1) throw new IllegalArgumentException("n must be at least 1");
+                String category = a.size() == 2 || a.size() == 4 ? a.get(1) : null;
+                LocalDate from = a.size() >= 3 ? LocalDate.parse(a.get(a.size() - 2)) : null;
+                LocalDate to = a.size() >= 3 ? LocalDate.parse(a.get(a.size() - 1)) : null;
+                return cli -> { cli.manager().showTopExpenses(n, category, from, to); return true; };
+            }
+            case "trend": {
+                args(a, 3, 4);
+                ExpenseRollups.Granularity g = ExpenseRollups.Granularity.valueOf(a.get(0).toUpperCase(Locale.ROOT));
+                LocalDate from = LocalDate.parse(a.get(1)), to = LocalDate.parse(a.get(2));
+                if (from.isAfter(to)) throw new IllegalArgumentException("from must not be after to");
+                String category = a.size() > 3 ? a.get(3) : null;
+                return cli -> { cli.manager().showTrend(category, from, to, g); return true; };
+            }
+            case "search": {
+                ExpenseQuery q = query(a);
+                return cli -> { cli.manager().search(q); return true; };
+            }
+            case "budget": {
+                args(a, 2, 3);
+                String category = a.get(0);
+                double limit = amount(a.get(1));
+                if (limit < 0) throw new IllegalArgumentException("budget must not be negative (0 removes it)");
+                ExpenseBudgets.Period period = a.size() > 2
+                        ? ExpenseBudgets.Period.valueOf(a.get(2).toUpperCase(Locale.ROOT)) : ExpenseBudgets.Period.TOTAL;
+                return cli -> { cli.manager().setBudget(category, limit, period); return true; };
+            }
+            case "stats":
+                args(a, 0, 0);
+                return cli -> {
+                    ExpenseManager m = cli.manager();
+                    System.out.println("Loaded: " + m.getLoadStats());
+                    String pager = m.getPagerStats();
+                    if (pager != null) System.out.println("History: " + pager);
+                    return true;
+                };
+            case "convert": {
+                args(a, 3, 3);
+                String mode = a.get(0);
+                if (!mode.equals("to-bin") && !mode.equals("to-csv")) throw new IllegalArgumentException("expected to-bin or to-csv");
+                String in = a.get(1), out = a.get(2);
+                return cli -> {
+                    if (mode.equals("to-bin")) {
+                        System.out.println("Converted " + ExpenseBinaryFile.csvToBinary(Paths.get(in), Paths.get(out)));
+                    } else {
+                        System.out.println("Converted " + ExpenseBinaryFile.binaryToCsv(Paths.get(in), Paths.get(out)) + " rows");
+                    }
+                    return true;
+                };
+            }
+            default:
+                throw new IllegalArgumentException("unknown command");
+        }
+    }
+
+    private static void args(List<String> a, int min, int max) {
+        if (a.size() < min || a.size() > max) {
+            throw new IllegalArgumentException(min == max ? "expected " + min + " argument(s)" : "expected " + min + " to " + max + " arguments");
+        }
+    }
+
+    private static int month(String s) {
+        int m = Integer.parseInt(s);
+        if (m < 1 || m > 12) throw new IllegalArgumentException("month must be 1-12");
+        return m;
+    }
+
+    // a money value ExpenseMoney can hold; rejects NaN, infinities and huge amounts before anything runs
+    private static double amount(String s) {
+        double v = Double.parseDouble(s);
+        ExpenseMoney.toCents(v);
+        return v;
+    }
+
+    private static ExpenseQuery query(List<String> a) {
+        ExpenseQuery q = ExpenseQuery.all();
+        LocalDate from = null, to = null;
+        double min = Double.NEGATIVE_INFINITY, max = Double.POSITIVE_INFINITY;
+        for (String kv : a) {
+            int eq = kv.indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("expected key=value, got " + kv);
+            String v = kv.substring(eq + 1);
+            switch (kv.substring(0, eq).toLowerCase(Locale.ROOT)) {
+                case "category": q = q.category(v); break;
+                case "keyword": q = q.keyword(v); break;
+                case "from": from = LocalDate.parse(v); break;
+                case "to": to = LocalDate.parse(v); break;
+                case "min": min = amount(v); break;
+                case "max": max = amount(v); break;
+                default: throw new IllegalArgumentException("unknown search key " + kv.substring(0, eq));
+            }
+        }
+        if (min > max) throw new IllegalArgumentException("min must not exceed max");
+        return q.between(from, to).amount(min, max);
+    }
+}
@@ -0,0 +1,100 @@
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Startup options, read from {@code -Dexpense.*} system properties so the defaults keep the
+ * application behaving exactly as before.
+ */
+final class ExpenseConfig {
+
+    private ExpenseConfig() {}
+
+    /** {@code name} inside {@code -Dexpense.dir} (default: the working directory), for expenses.csv and budgets.csv. */
+    static String dataFile(String name) {
+        String dir = System.getProperty("expense.dir", "").trim();
+        return dir.isEmpty() ? name : Paths.get(dir, name).toString();
+    }
+
+    /** Snapshot layout behind the journal. */
+    enum Storage {
+        CSV,          // expenses.csv
+        BINARY,       // expenses.bin, see ExpenseBinaryFile
+        PARTITIONED   // expenses.parts/, one binary file per month, see ExpensePartitions
+    }
+
+    /**
+     * {@code -Dexpense.storage=csv|binary|partitioned} (default csv). Lazy loading pages from
+     * mapped binary files, so it turns csv into binary.
+     */
+    static Storage storage() {
+        String value = System.getProperty("expense.storage", "csv").trim();
+        for (Storage s : Storage.values()) {
+            if (s.name().equalsIgnoreCase(value)) return s == Storage.CSV && lazyLoading() ? Storage.BINARY : s;
+        }
+        return lazyLoading() ? Storage.BINARY : Storage.CSV;
+    }
+
+    /** {@code -Dexpense.lazy=true} loads only recent months at startup and pages older ones in on demand. */
+    static boolean lazyLoading() {
+        return Boolean.parseBoolean(System.getProperty("expense.lazy", "false").trim());
+    }
+
+    /** First day loaded eagerly in lazy mode: the start of the last {@code -Dexpense.recentMonths} (default 3) months. */
+    static LocalDate recentWindowStart() {
+        int months = Math.max(1, intProperty("expense.recentMonths", 3));
+        return LocalDate.now().withDayOfMonth(1).minusMonths(months - 1);
+    }
+
+    /** Budget for paged-in months, {@code -Dexpense.pageCacheMB} (default 64). */
+    static long pageCacheBytes() {
+        return Math.max(1, intProperty("expense.pageCacheMB", 64)) * 1024L * 1024L;
+    }
+
+    /** Budget for cached query results and reports, {@code -Dexpense.resultCacheMB} (default 16; 0 turns caching off). */
+    static long resultCacheBytes() {
+        return Math.max(0, intProperty("expense.resultCacheMB", 16)) * 1024L * 1024L;
+    }
+
+    /** {@code -Dexpense.metricsFile}: where metrics are appended as JSON lines, or null for no dump. */
+    static Path metricsFile() {
+        String file = System.getProperty("expense.metricsFile", "").trim();
+        return file.isEmpty() ? null : Paths.get(file);
+    }
+
+    /** Seconds between metrics dumps, {@code -Dexpense.metricsIntervalSec} (default 60). */
+    static long metricsIntervalSeconds() {
+        return Math.max(1, intProperty("expense.metricsIntervalSec", 60));
+    }
+
+    /** {@code -Dexpense.alertThresholds}: budget fractions that raise an alert (default 0.8,1.0). */
+    static double[] alertThresholds() {
+        try {
+            double[] t = Arrays.stream(System.getProperty("expense.alertThresholds", "0.8,1.0").split(","))
+                    .map(String::trim).mapToDouble(Double::parseDouble).filter(v -> v > 0).toArray();
+            return t.length == 0 ? new double[]{0.8, 1.0} : t;
+        } catch (NumberFormatException ex) {
+            return new double[]{0.8, 1.0};
+        }
+    }
+
+    /** {@code -Dexpense.alertLog}: file that budget alerts are appended to, or null. */
+    static Path alertLog() {
+        String file = System.getProperty("expense.alertLog", "").trim();
+        return file.isEmpty() ? null : Paths.get(file);
+    }
+
+    /** {@code -Dexpense.jmx=false} skips publishing the metrics bean (and starting the platform MBean server). */
+    static boolean jmxEnabled() {
+        return Boolean.parseBoolean(System.getProperty("expense.jmx", "true").trim());
+    }
+
+    private static int intProperty(String key, int def) {
+        try {
+            return Integer.parseInt(System.getProperty(key, String.valueOf(def)).trim());
+        } catch (NumberFormatException ex) {
+            return def;
+        }
+    }
+}
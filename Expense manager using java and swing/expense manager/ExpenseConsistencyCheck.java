@@ -0,0 +1,195 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Stress check for one ExpenseManager shared by concurrent writers and a reader, with no
+ * dependencies beyond the JDK.
+ *
+ * Usage: java ExpenseConsistencyCheck [--writers 4] [--rows 200000] [--batch 64]
+ *
+ * Writers add rows to a scratch ledger (the real one is never touched), half of them one at a
+ * time through addExpense and half in addExpenses batches. Every row costs the same, and one
+ * row in eight carries a marker keyword. Meanwhile a reader keeps taking snapshots and checks
+ * that each one's summed cents equal its row count times that amount, and that a keyword and a
+ * one-day date query, both answered from the indexes, return exactly the rows a scan of the same
+ * snapshot finds. Finally the ledger is reopened and must hold every row. Exits 1 on the first
+ * violation. -Dexpense.* options such as storage or the result cache size apply as usual; with
+ * the cache on (the default) the queries also check that no cached result outlives a matching insert.
+ */
+public class ExpenseConsistencyCheck {
+    private static final String RESET = "\u001B[0m";
+    private static final String RED = "\u001B[31m";
+    private static final String GREEN = "\u001B[32m";
+    private static final String CYAN = "\u001B[36m";
+
+    private static final double AMOUNT = 1.25;
+    private static final long CENTS = ExpenseMoney.toCents(AMOUNT);
+    private static final String MARKER = "zebra";
+    private static final int DAYS = 365;
+
+    private final ExpenseQuery byKeyword = ExpenseQuery.all().keyword(MARKER);
+    private final LocalDate first = LocalDate.now().minusDays(DAYS - 1);
+    private final LocalDate markerDay = first.plusDays(DAYS / 2);
+    private final ExpenseQuery byDay = ExpenseQuery.all().between(markerDay, markerDay);
+    private volatile String failure;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) usage();
+            opt.put(args[i].substring(2), args[i + 1]);
+        }
+        if (args.length % 2 != 0) usage();
+        int writers = Integer.parseInt(opt.getOrDefault("writers", "4"));
+        int rows = Integer.parseInt(opt.getOrDefault("rows", "200000"));
+        int batch = Integer.parseInt(opt.getOrDefault("batch", "64"));
+        if (writers < 1 || rows < writers || batch < 1) usage();
+
+        Path scratch = Files.createTempDirectory("expense-check");
+        System.setProperty("expense.dir", scratch.toString());
+        boolean ok;
+        try {
+            ok = new ExpenseConsistencyCheck().run(writers, rows / writers, batch);
+        } finally {
+            deleteTree(scratch);
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static void usage() {
+        System.out.println("Usage: java ExpenseConsistencyCheck [--writers 4] [--rows 200000] [--batch 64]");
+        System.exit(2);
+    }
+
+    private boolean run(int writers, int perWriter, int batch) throws Exception {
+        int total = writers * perWriter;
+        System.out.println(CYAN + "--- " + writers + " writers x " + perWriter + " rows, one reader ---" + RESET);
+        ExpenseManager m = new ExpenseManager();
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        long checked = 0;
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                int worker = w;
+                done.add(pool.submit(() -> write(m, worker, perWriter, worker % 2 == 0 ? 1 : batch)));
+            }
+            Thread join = new Thread(() -> {
+                for (Future<?> f : done) {
+                    try {
+                        f.get();
+                    } catch (Exception ex) {
+                        fail("writer failed: " + ex);
+                    }
+                }
+                writing.set(false);
+            }, "check-join");
+            join.start();
+            while (writing.get() && failure == null) {
+                check(m, m.snapshot(), -1);
+                checked++;
+            }
+            join.join();
+            if (failure == null) check(m, m.snapshot(), total);
+            for (ExpenseQuery q : Arrays.asList(byKeyword, byDay)) {
+                if (failure == null && m.query(q).source() == ExpenseQuery.Source.SCAN) fail("not answered from an index: " + q);
+            }
+        } finally {
+            pool.shutdown();
+            m.close();
+        }
+        if (failure == null) {
+            ExpenseManager reopened = new ExpenseManager();
+            try {
+                List<Expense> all = reopened.getAllExpenses();
+                long cents = 0;
+                for (Expense e : all) cents += e.getCents();
+                if (all.size() != total || cents != total * CENTS) {
+                    fail("reloaded " + all.size() + " rows worth " + cents + " cents, expected " + total);
+                }
+            } finally {
+                reopened.close();
+            }
+        }
+        if (failure != null) {
+            System.out.println(RED + "FAILED: " + failure + RESET);
+            return false;
+        }
+        System.out.println(GREEN + "OK: " + checked + " snapshots consistent, " + total + " rows reloaded" + RESET);
+        return true;
+    }
+
+    // spreads each writer's rows over DAYS days; batch 1 goes through addExpense
+    private void write(ExpenseManager m, int worker, int count, int batch) {
+        List<Expense> pending = new ArrayList<>(batch);
+        for (int k = 0; k < count && failure == null; k++) {
+            LocalDate date = first.plusDays((worker + (long) k * 7) % DAYS);
+            String notes = k % 8 == 0 ? MARKER + " " + worker : "plain";
+            if (batch == 1) {
+                m.addExpense("Shop " + worker, "Misc", AMOUNT, date, notes);
+                continue;
+            }
+            pending.add(new Expense("Shop " + worker, "Misc", AMOUNT, date, notes));
+            if (pending.size() == batch || k == count - 1) {
+                m.addExpenses(pending);
+                pending = new ArrayList<>(batch);
+            }
+        }
+    }
+
+    // expected < 0 means any size will do
+    private void check(ExpenseManager m, ExpenseStore snap, int expected) {
+        int n = snap.size();
+        if (expected >= 0 && n != expected) {
+            fail("snapshot has " + n + " rows, expected " + expected);
+            return;
+        }
+        long cents = snap.totalCents();
+        int marked = 0, onDay = 0;
+        for (int r = 0; r < n; r++) {
+            if (snap.name(r) == null || snap.notes(r) == null || snap.category(r) == null) {
+                fail("row " + r + " of " + n + " is only partly written");
+                return;
+            }
+            if (snap.notes(r).startsWith(MARKER)) marked++;
+            if (snap.epochDay(r) == markerDay.toEpochDay()) onDay++;
+        }
+        if (cents != n * CENTS) fail(n + " rows sum to " + cents + " cents, expected " + n * CENTS);
+        else postings(m, snap, byKeyword, marked, r -> snap.notes(r).startsWith(MARKER));
+        if (failure == null) postings(m, snap, byDay, onDay, r -> snap.epochDay(r) == markerDay.toEpochDay());
+    }
+
+    private interface RowTest {
+        boolean matches(int row);
+    }
+
+    // the ids must be distinct rows of snap that match, as many as a scan found
+    private void postings(ExpenseManager m, ExpenseStore snap, ExpenseQuery q, int expected, RowTest test) {
+        IntList ids = m.queryRows(q, snap);
+        BitSet seen = new BitSet(snap.size());
+        for (int i = 0; i < ids.size(); i++) {
+            int r = ids.get(i);
+            if (r < 0 || r >= snap.size() || seen.get(r) || !test.matches(r)) {
+                fail(q + " returned row " + r + " of a " + snap.size() + "-row snapshot");
+                return;
+            }
+            seen.set(r);
+        }
+        if (ids.size() != expected) fail(q + " found " + ids.size() + " rows where a scan of " + snap.size() + " found " + expected);
+    }
+
+    private void fail(String message) {
+        if (failure == null) failure = message;
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) return;
+        try (java.util.stream.Stream<Path> walk = Files.walk(root)) {
+            for (Path p : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) Files.deleteIfExists(p);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parallel bulk parser for large expense CSV files.
+ *
+ * The file is cut into chunks on line boundaries, each chunk is parsed by its own
+ * {@link ExpenseCsvReader} on the fork-join pool into a private columnar batch, and the batches
+ * come back in file order so the caller can merge them without re-sorting. Accepts both the
+ * headerless expenses.csv layout and the "Name,Category,Amount,Date,Notes" header written by
+ * the CSV exports.
+ */
+class ExpenseCsvImporter {
+    static final String HEADER = "Name,Category,Amount,Date,Notes";
+    private static final long MIN_CHUNK = 4L << 20;
+
+    /**
+     * Parses {@code file} into per-chunk batches (in file order), accumulating into {@code stats}.
+     * {@code progress} is called from the chunk threads before each chunk starts, with the bytes
+     * parsed so far; returning false ends the parse with a CancellationException.
+     */
+    static List<ExpenseStore> parse(Path file, ExpenseCsvReader.Stats stats, ExpenseManager.Progress progress) throws IOException {
+        long t0 = System.nanoTime();
+        String source = file.getFileName().toString();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            long start = headerLength(ch);
+            int parts = (int) Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * 4L, (size - start) / MIN_CHUNK));
+            long[] bounds = new long[parts + 1];
+            bounds[0] = start;
+            bounds[parts] = size;
+            for (int i = 1; i < parts; i++) {
+                bounds[i] = ExpenseCsvReader.nextLineStart(ch, Math.max(bounds[i - 1], start + (size - start) * i / parts), size);
+            }
+
+            ExpenseStore[] batches = new ExpenseStore[parts];
+            ExpenseCsvReader.Stats[] chunkStats = new ExpenseCsvReader.Stats[parts];
+            try {
+                ForkJoinPool.commonPool().invoke(new ChunkTask(ch, bounds, 0, parts, source, batches, chunkStats,
+                        progress, new AtomicLong(start)));
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+
+            if (start > 0) stats.lines++; // header line
+            for (ExpenseCsvReader.Stats st : chunkStats) stats.append(st);
+            stats.nanos += System.nanoTime() - t0;
+            return Arrays.asList(batches);
+        }
+    }
+
+    /** Byte length of the export header line, or 0 when the file starts with data. */
+    private static long headerLength(FileChannel ch) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(HEADER.length() + 2);
+        int n = ch.read(bb, 0);
+        if (n < HEADER.length()) return 0;
+        String head = new String(bb.array(), 0, n, StandardCharsets.UTF_8);
+        if (!head.startsWith(HEADER)) return 0;
+        return ExpenseCsvReader.nextLineStart(ch, HEADER.length(), ch.size());
+    }
+
+    /** Splits the chunk range in halves until a single chunk is left, then parses it. */
+    private static final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient FileChannel ch;
+        private final long[] bounds;
+        private final int lo, hi;
+        private final String source;
+        private final ExpenseStore[] batches;
+        private final ExpenseCsvReader.Stats[] stats;
+        private final transient ExpenseManager.Progress progress;
+        private final AtomicLong parsed; // end offset of the header plus every finished chunk's bytes
+
+        ChunkTask(FileChannel ch, long[] bounds, int lo, int hi, String source, ExpenseStore[] batches,
+                  ExpenseCsvReader.Stats[] stats, ExpenseManager.Progress progress, AtomicLong parsed) {
+            this.ch = ch;
+            this.bounds = bounds;
+            this.lo = lo;
+            this.hi = hi;
+            this.source = source;
+            this.batches = batches;
+            this.stats = stats;
+            this.progress = progress;
+            this.parsed = parsed;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new ChunkTask(ch, bounds, lo, mid, source, batches, stats, progress, parsed),
+                        new ChunkTask(ch, bounds, mid, hi, source, batches, stats, progress, parsed));
+                return;
+            }
+            long from = bounds[lo], to = bounds[lo + 1];
+            long size = bounds[bounds.length - 1];
+            if (!progress.update(parsed.get(), size)) throw new CancellationException();
+            ExpenseStore batch = new ExpenseStore((int) Math.max(64, (to - from) / 40));
+            try {
+                stats[lo] = new ExpenseCsvReader(false).read(ch, from, to, 1, source,
+                        (seq, name, category, cents, day, notes) -> batch.appendUnpublished(name, category, cents, day, notes));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            batch.publish();
+            batches[lo] = batch;
+            parsed.addAndGet(to - from);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming loader for the expenses CSV layout ("name,category,amount,date,notes").
+ *
+ * Reads the file through a reusable 1 MB buffer, finds field boundaries in place, parses plain
+ * decimals and ISO dates straight from the bytes (falling back to the JDK parsers for anything
+ * unusual) and hands each row to a {@link RowSink} without building an Expense or a String[].
+ * A bad line is reported and skipped instead of aborting the rest of the file. Throughput is
+ * recorded in {@link Stats}; the loader aims for at least TARGET_MB_PER_SEC on a warm JVM.
+ */
+class ExpenseCsvReader {
+    static final double TARGET_MB_PER_SEC = 100;
+    private static final int BUFFER = 1 << 20;
+    private static final int MAX_MESSAGES = 10;
+
+    interface RowSink {
+        /** {@code seq} is the leading sequence column for journals, -1 for plain CSV; amounts are in cents. */
+        void row(long seq, String name, String category, long cents, int epochDay, String notes);
+
+        /** Lines starting with '#' (e.g. the snapshot "#seq,N" header). */
+        default void directive(String line) {}
+    }
+
+    /** A skipped line, kept for the first few so the user can find it. */
+    static final class LineError {
+        final String source;
+        final int line;
+        final String message;
+
+        LineError(String source, int line, String message) {
+            this.source = source;
+            this.line = line;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return source + " line " + line + ": " + message;
+        }
+    }
+
+    /** Outcome of one read: rows delivered, bad lines skipped and load throughput. */
+    static final class Stats {
+        long bytes;
+        long nanos;
+        int lines;
+        int rows;
+        int errors;
+        final List<LineError> firstErrors = new ArrayList<>();
+
+        double mbPerSecond() {
+            return nanos == 0 ? 0 : (bytes / 1e6) / (nanos / 1e9);
+        }
+
+        /** Adds another file's counts (e.g. journal segments after the snapshot). */
+        void merge(Stats o) {
+            bytes += o.bytes;
+            nanos += o.nanos;
+            rows += o.rows;
+            errors += o.errors;
+            lines += o.lines;
+            for (LineError err : o.firstErrors) if (firstErrors.size() < MAX_MESSAGES) firstErrors.add(err);
+        }
+
+        /** Adds the next chunk of the same file, renumbering its lines to follow ours. */
+        void append(Stats o) {
+            for (LineError err : o.firstErrors) {
+                if (firstErrors.size() < MAX_MESSAGES) firstErrors.add(new LineError(err.source, err.line + lines, err.message));
+            }
+            bytes += o.bytes;
+            rows += o.rows;
+            errors += o.errors;
+            lines += o.lines;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d rows, %d skipped, %.1f MB in %d ms (%.1f MB/s)",
+                    rows, errors, bytes / 1e6, nanos / 1_000_000, mbPerSecond());
+        }
+    }
+
+    private final boolean seqColumn;
+    private final int fields;
+    private final int[] cut; // field i spans [cut[i], cut[i + 1] - 1)
+
+    // tiny decode cache: a ledger only ever has a handful of categories
+    private byte[][] catBytes = new byte[8][];
+    private String[] catNames = new String[8];
+    private int catCount;
+
+    ExpenseCsvReader(boolean seqColumn) {
+        this.seqColumn = seqColumn;
+        this.fields = seqColumn ? 6 : 5;
+        this.cut = new int[fields + 1];
+    }
+
+    Stats read(Path file, RowSink sink) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(ch, 0, ch.size(), 1, file.getFileName().toString(), sink);
+        }
+    }
+
+    /** Parses the lines in [from, to) of {@code ch}; {@code firstLine} numbers error messages. */
+    Stats read(FileChannel ch, long from, long to, int firstLine, String source, RowSink sink) throws IOException {
+        Stats st = new Stats();
+        long t0 = System.nanoTime();
+        byte[] buf = new byte[(int) Math.max(16, Math.min(BUFFER, to - from))];
+        int filled = 0;
+        long pos = from;
+        int line = firstLine;
+        while (true) {
+            int n = 0;
+            if (pos < to) {
+                ByteBuffer bb = ByteBuffer.wrap(buf, filled, (int) Math.min(buf.length - filled, to - pos));
+                n = ch.read(bb, pos);
+                if (n > 0) {
+                    pos += n;
+                    filled += n;
+                }
+            }
+            boolean eof = pos >= to || n < 0;
+            int start = 0;
+            for (int i = 0; i < filled; i++) {
+                if (buf[i] == '\n') {
+                    parseLine(buf, start, i, line++, source, sink, st);
+                    start = i + 1;
+                }
+            }
+            if (eof) {
+                if (start < filled) parseLine(buf, start, filled, line, source, sink, st);
+                break;
+            }
+            int rest = filled - start;
+            if (rest == buf.length) buf = Arrays.copyOf(buf, buf.length * 2); // line longer than the buffer
+            else System.arraycopy(buf, start, buf, 0, rest);
+            filled = rest;
+        }
+        st.bytes = pos - from;
+        st.nanos = System.nanoTime() - t0;
+        return st;
+    }
+
+    /** Offset of the first line starting at or after {@code pos} (never past {@code end}). */
+    static long nextLineStart(FileChannel ch, long pos, long end) throws IOException {
+        if (pos == 0) return 0;
+        ByteBuffer bb = ByteBuffer.allocate(4096);
+        long p = pos - 1; // pos itself starts a line if the byte before it is '\n'
+        while (p < end) {
+            bb.clear();
+            int n = ch.read(bb, p);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                if (bb.get(i) == '\n') return Math.min(end, p + i + 1);
+            }
+            p += n;
+        }
+        return end;
+    }
+
+    /* ------------ Line parsing ------------ */
+
+    private void parseLine(byte[] b, int s, int e, int line, String source, RowSink sink, Stats st) {
+        st.lines++;
+        if (e > s && b[e - 1] == '\r') e--;
+        if (e == s) return;
+        if (b[s] == '#') {
+            sink.directive(new String(b, s, e - s, StandardCharsets.UTF_8));
+            return;
+        }
+        int f = 0;
+        cut[0] = s;
+        for (int i = s; i < e && f < fields - 1; i++) {
+            if (b[i] == ',') cut[++f] = i + 1;
+        }
+        for (int k = 0; k <= f; k++) {
+            if (cut[k] < e && b[cut[k]] == '"') { // RFC 4180 quoting, as written by ExpenseCsvWriter
+                parseQuotedLine(b, s, e, line, source, sink, st);
+                return;
+            }
+        }
+        if (f < fields - 1) {
+            error(st, source, line, "expected " + fields + " fields");
+            return;
+        }
+        int lastEnd = e;
+        for (int i = cut[fields - 1]; i < e; i++) {
+            if (b[i] == ',') { lastEnd = i; break; } // extra columns are ignored, like split() did
+        }
+        cut[fields] = lastEnd + 1;
+        int o = seqColumn ? 1 : 0;
+        try {
+            long seq = seqColumn ? parseLong(b, cut[0], cut[1] - 1) : -1;
+            String name = text(b, cut[o], cut[o + 1] - 1);
+            String category = category(b, cut[o + 1], cut[o + 2] - 1);
+            long cents = ExpenseMoney.parseCents(b, cut[o + 2], cut[o + 3] - 1);
+            int day = parseDate(b, cut[o + 3], cut[o + 4] - 1);
+            String notes = text(b, cut[o + 4], lastEnd);
+            sink.row(seq, name, category, cents, day, notes);
+            st.rows++;
+        } catch (NumberFormatException | DateTimeException ex) {
+            error(st, source, line, ex.getMessage());
+        }
+    }
+
+    // slow path for lines with quoted fields; a quoted line break is not supported since lines are split first
+    private void parseQuotedLine(byte[] b, int s, int e, int line, String source, RowSink sink, Stats st) {
+        List<String> values = new ArrayList<>(fields);
+        StringBuilder field = new StringBuilder();
+        String text = new String(b, s, e - s, StandardCharsets.UTF_8);
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c != '"') field.append(c);
+                else if (i + 1 < text.length() && text.charAt(i + 1) == '"') field.append(text.charAt(i++));
+                else quoted = false;
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            error(st, source, line, "unterminated quoted field");
+            return;
+        }
+        values.add(field.toString());
+        if (values.size() < fields) {
+            error(st, source, line, "expected " + fields + " fields");
+            return;
+        }
+        int o = seqColumn ? 1 : 0;
+        try {
+            long seq = seqColumn ? Long.parseLong(values.get(0)) : -1;
+            String category = values.get(o + 1);
+            for (int i = 0; i < catCount; i++) {
+                if (catNames[i].equals(category)) { category = catNames[i]; break; }
+            }
+            byte[] amount = values.get(o + 2).getBytes(StandardCharsets.UTF_8);
+            byte[] date = values.get(o + 3).getBytes(StandardCharsets.UTF_8);
+            sink.row(seq, values.get(o), category, ExpenseMoney.parseCents(amount, 0, amount.length),
+                    parseDate(date, 0, date.length), values.get(o + 4));
+            st.rows++;
+        } catch (NumberFormatException | DateTimeException ex) {
+            error(st, source, line, ex.getMessage());
+        }
+    }
+
+    private static void error(Stats st, String source, int line, String msg) {
+        st.errors++;
+        if (st.firstErrors.size() < MAX_MESSAGES) st.firstErrors.add(new LineError(source, line, msg));
+    }
+
+    private static String text(byte[] b, int s, int e) {
+        return e == s ? "" : new String(b, s, e - s, StandardCharsets.UTF_8);
+    }
+
+    private String category(byte[] b, int s, int e) {
+        for (int i = 0; i < catCount; i++) {
+            if (Arrays.equals(catBytes[i], 0, catBytes[i].length, b, s, e)) return catNames[i];
+        }
+        String c = text(b, s, e);
+        if (catCount == catBytes.length) return c;
+        catBytes[catCount] = Arrays.copyOfRange(b, s, e);
+        catNames[catCount++] = c;
+        return c;
+    }
+
+    /* ------------ Number and date parsing ------------ */
+
+    private static long parseLong(byte[] b, int s, int e) {
+        if (s == e) throw new NumberFormatException("empty number");
+        long v = 0;
+        for (int i = s; i < e; i++) {
+            int d = b[i] - '0';
+            if (d < 0 || d > 9 || i - s >= 18) return Long.parseLong(text(b, s, e));
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    /** "yyyy-MM-dd" to epoch day without building a LocalDate; other shapes go to LocalDate.parse. */
+    static int parseDate(byte[] b, int s, int e) {
+        if (e - s != 10 || b[s + 4] != '-' || b[s + 7] != '-') return (int) LocalDate.parse(text(b, s, e)).toEpochDay();
+        int y = digits(b, s, 4), m = digits(b, s + 5, 2), d = digits(b, s + 8, 2);
+        if (y < 0 || m < 1 || m > 12 || d < 1 || d > monthLength(y, m)) {
+            return (int) LocalDate.parse(text(b, s, e)).toEpochDay(); // throws with the JDK's message
+        }
+        return epochDay(y, m, d);
+    }
+
+    private static int digits(byte[] b, int s, int n) {
+        int v = 0;
+        for (int i = s; i < s + n; i++) {
+            int d = b[i] - '0';
+            if (d < 0 || d > 9) return -1;
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    private static boolean leap(int y) {
+        return (y & 3) == 0 && (y % 100 != 0 || y % 400 == 0);
+    }
+
+    private static int monthLength(int y, int m) {
+        switch (m) {
+            case 2: return leap(y) ? 29 : 28;
+            case 4: case 6: case 9: case 11: return 30;
+            default: return 31;
+        }
+    }
+
+    /** Same arithmetic as LocalDate.toEpochDay for years 0..9999. */
+    static int epochDay(int y, int m, int d) {
+        long total = 365L * y + (y + 3) / 4 - (y + 99) / 100 + (y + 399) / 400;
+        total += (367 * m - 362) / 12;
+        total += d - 1;
+        if (m > 2) {
+            total--;
+            if (!leap(y)) total--;
+        }
+        return (int) (total - 719_528);
+    }
+}
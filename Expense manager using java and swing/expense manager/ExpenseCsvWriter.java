@@ -0,0 +1,171 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Channels;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streaming CSV export in the importer's layout ("Name,Category,Amount,Date,Notes").
+ *
+ * Rows are encoded column by column straight from an {@link ExpenseStore} into one reusable
+ * BUFFER-sized ByteBuffer that is drained to a FileChannel whenever it fills, so memory stays
+ * bounded however many rows are written and no Expense or line String is built per row. Fields
+ * are quoted per RFC 4180 only when they contain a comma, quote or line break, and lines end in
+ * CRLF. A target ending in ".gz" is gzip-compressed on the way out.
+ */
+class ExpenseCsvWriter implements Closeable {
+    static final int BUFFER = 64 * 1024;
+
+    private final FileChannel channel;
+    private final GZIPOutputStream gzip; // null for plain CSV
+    private final ByteBuffer buf;
+    private long rows;
+
+    ExpenseCsvWriter(Path target) throws IOException {
+        channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        boolean compress = target.getFileName().toString().endsWith(".gz");
+        // the deflater needs a byte[], a plain channel write avoids the copy from a heap buffer
+        gzip = compress ? new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER) : null;
+        buf = compress ? ByteBuffer.allocate(BUFFER) : ByteBuffer.allocateDirect(BUFFER);
+        ascii(ExpenseCsvImporter.HEADER);
+        newline();
+    }
+
+    /** Writes row {@code r} of {@code store}. */
+    void write(ExpenseStore store, int r) throws IOException {
+        field(store.name(r));
+        put(',');
+        field(store.category(r));
+        put(',');
+        ascii(ExpenseMoney.format(store.cents(r)));
+        put(',');
+        date(store.epochDay(r));
+        put(',');
+        field(store.notes(r));
+        newline();
+        rows++;
+    }
+
+    /** Rows written so far, excluding the header. */
+    long rows() { return rows; }
+
+    @Override
+    public void close() throws IOException {
+        try (FileChannel ch = channel) {
+            drain();
+            if (gzip != null) gzip.finish();
+            ch.force(false);
+        }
+    }
+
+    /* ------------ Encoding ------------ */
+
+    /** True when {@code s} has to be quoted to stay a single field: it holds a comma, quote or line break. */
+    static boolean needsQuotes(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') return true;
+        }
+        return false;
+    }
+
+    /** Appends {@code s} as one field, quoted exactly as {@link #write} quotes it. */
+    static StringBuilder field(StringBuilder sb, String s) {
+        if (!needsQuotes(s)) return sb.append(s);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"') sb.append('"');
+            sb.append(c);
+        }
+        return sb.append('"');
+    }
+
+    /**
+     * Appends one "name,category,amount,date,notes" record without a line end, in the same
+     * encoding as {@link #write}. Every text line the journal and CSV snapshots persist goes
+     * through here, so whatever the importer accepts reads back unchanged.
+     */
+    static StringBuilder record(StringBuilder sb, String name, String category, long cents, LocalDate date, String notes) {
+        field(sb, name).append(',');
+        field(sb, category).append(',');
+        ExpenseMoney.append(sb, cents).append(',').append(date).append(',');
+        return field(sb, notes);
+    }
+
+    private void field(String s) throws IOException {
+        boolean quote = needsQuotes(s);
+        if (quote) put('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c == '"') put('"');
+                put(c);
+            } else if (c < 0x800) {
+                put(0xC0 | c >> 6);
+                put(0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                put(0xF0 | cp >> 18);
+                put(0x80 | cp >> 12 & 0x3F);
+                put(0x80 | cp >> 6 & 0x3F);
+                put(0x80 | cp & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                put('?'); // unpaired surrogate, as String.getBytes would
+            } else {
+                put(0xE0 | c >> 12);
+                put(0x80 | c >> 6 & 0x3F);
+                put(0x80 | c & 0x3F);
+            }
+        }
+        if (quote) put('"');
+    }
+
+    // yyyy-MM-dd, as LocalDate.toString
+    private void date(int epochDay) throws IOException {
+        LocalDate d = LocalDate.ofEpochDay(epochDay);
+        int y = d.getYear();
+        if (y < 1000 || y > 9999) {
+            ascii(d.toString());
+            return;
+        }
+        digits(y / 100);
+        digits(y % 100);
+        put('-');
+        digits(d.getMonthValue());
+        put('-');
+        digits(d.getDayOfMonth());
+    }
+
+    private void digits(int twoDigits) throws IOException {
+        put('0' + twoDigits / 10);
+        put('0' + twoDigits % 10);
+    }
+
+    private void ascii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) put(s.charAt(i));
+    }
+
+    private void newline() throws IOException {
+        put('\r');
+        put('\n');
+    }
+
+    private void put(int b) throws IOException {
+        if (!buf.hasRemaining()) drain();
+        buf.put((byte) b);
+    }
+
+    private void drain() throws IOException {
+        buf.flip();
+        if (gzip != null) {
+            gzip.write(buf.array(), 0, buf.limit());
+        } else {
+            while (buf.hasRemaining()) channel.write(buf);
+        }
+        buf.clear();
+    }
+}
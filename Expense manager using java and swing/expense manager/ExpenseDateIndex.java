@@ -0,0 +1,47 @@
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Sorted index from epoch day to the row ids of the expenses on that day.
+ * Range and month lookups cost O(log n + k) instead of a scan over every expense.
+ * One writer at a time; readers run concurrently and pass the row count of their snapshot.
+ */
+class ExpenseDateIndex {
+    private final ConcurrentSkipListMap<Long, IntList> byDay = new ConcurrentSkipListMap<>();
+
+    void add(int row, long epochDay) {
+        byDay.computeIfAbsent(epochDay, k -> new IntList(4)).add(row);
+    }
+
+    /** Row ids below {@code limit} with from <= date <= to, in date order (insertion order within a day). */
+    IntList range(LocalDate from, LocalDate to, int limit) {
+        IntList out = new IntList();
+        if (from.isAfter(to)) return out;
+        for (IntList rows : byDay.subMap(from.toEpochDay(), true, to.toEpochDay(), true).values()) {
+            out.addAllBelow(rows, limit); // drops rows appended after the caller's snapshot
+        }
+        return out;
+    }
+
+    /** Rows dated from..to (inclusive), counting every row indexed so far; a cheap selectivity estimate. */
+    int count(long from, long to) {
+        if (from > to) return 0;
+        int n = 0;
+        for (IntList rows : byDay.subMap(from, true, to, true).values()) n += rows.size();
+        return n;
+    }
+
+    /** Every row id below {@code limit}, in date order. */
+    IntList all(int limit) {
+        IntList out = new IntList(Math.max(8, limit));
+        for (IntList rows : byDay.values()) out.addAllBelow(rows, limit);
+        return out;
+    }
+
+    IntList month(int month, int year, int limit) {
+        if (month < 1 || month > 12) return new IntList();
+        YearMonth ym = YearMonth.of(year, month);
+        return range(ym.atDay(1), ym.atEndOfMonth(), limit);
+    }
+}
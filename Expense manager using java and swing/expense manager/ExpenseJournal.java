@@ -0,0 +1,399 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Append-only write-ahead journal that sits in front of the expenses snapshot.
+ *
+ * Each journal line is "seq,name,category,amount,date,notes", text fields quoted the way
+ * {@link ExpenseCsvWriter} quotes them. Appends go straight to the file channel, fsync is
+ * batched (group commit) every SYNC_EVERY records or SYNC_INTERVAL_MS, and once COMPACT_EVERY
+ * records pile up the journal is folded into the snapshot on a background thread. The snapshot starts with a "#seq,N" line (ignored by the plain CSV
+ * loader because it has fewer than 5 fields) so replay only applies records newer than N.
+ * With binary storage the snapshot is an {@link ExpenseBinaryFile} that carries N in its header;
+ * with partitioned storage every month's file carries its own N and only the months that
+ * received records are rewritten. A lazy replay leaves older rows on disk and keeps them for
+ * later snapshots.
+ */
+class ExpenseJournal implements Closeable {
+    static final int SYNC_EVERY = 64;
+    static final long SYNC_INTERVAL_MS = 200;
+    static final int COMPACT_EVERY = 10_000;
+
+    private final String RESET = "\u001B[0m";
+    private final String RED = "\u001B[31m";
+
+    private final Path csvSnapshot;
+    private final Path binSnapshot;
+    private final ExpensePartitions partitions;
+    private final ExpenseConfig.Storage storage;
+    private final Path journal;
+    private final Path rotated;   // journal segment waiting to be folded into the snapshot
+
+    private FileChannel channel;
+    private long lastSeq;
+    private int pending;          // appended but not yet fsynced
+    private int sinceRotate;      // records in the active journal segment
+    private Set<Integer> dirtyMonths = new HashSet<>(); // partitions touched by the active segment
+    private final Set<Integer> unfoldedMonths = ConcurrentHashMap.newKeySet(); // handed back by a failed compaction
+    private Future<?> compaction;
+
+    private final List<ExpenseBinaryFile.Slice> history = new ArrayList<>(); // rows a lazy replay left on disk
+
+    private static final int HISTORY_CHUNK = 64 * 1024;
+
+    private final ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "expense-journal");
+        t.setDaemon(true);
+        return t;
+    });
+
+    ExpenseJournal(String snapshotFile, ExpenseConfig.Storage storage) {
+        String base = snapshotFile.replaceFirst("\\.csv$", "");
+        this.csvSnapshot = Paths.get(snapshotFile);
+        this.binSnapshot = Paths.get(base + ".bin");
+        this.partitions = new ExpensePartitions(Paths.get(base + ".parts"));
+        this.storage = storage;
+        this.journal = Paths.get(snapshotFile + ".journal");
+        this.rotated = Paths.get(snapshotFile + ".journal.old");
+        background.scheduleWithFixedDelay(this::syncQuietly, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /* ------------ Replay ------------ */
+
+    /** Loads snapshot + journal segments into {@code into}; the result matches a plain CSV load. */
+    synchronized ExpenseCsvReader.Stats replay(ExpenseStore into) throws IOException {
+        return replay(into, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Like {@link #replay(ExpenseStore)}, but snapshot rows dated before {@code fromDay} stay on
+     * disk when the snapshot is already in the configured binary or partitioned layout; see
+     * {@link #history()}. Journal records are always loaded.
+     */
+    synchronized ExpenseCsvReader.Stats replay(ExpenseStore into, int fromDay) throws IOException {
+        ExpenseCsvReader.Stats stats = new ExpenseCsvReader.Stats();
+        ExpenseConfig.Storage source = loadSnapshot(into, fromDay, stats);
+        long snapSeq = lastSeq;
+        IntToLongFunction folded = source == ExpenseConfig.Storage.PARTITIONED
+                ? day -> partitions.seqOf(ExpensePartitions.key(day))
+                : day -> snapSeq;
+        Set<Integer> replayed = new HashSet<>();
+        replaySegment(rotated, folded, into, stats, replayed);
+        sinceRotate = replaySegment(journal, folded, into, stats, replayed);
+        into.publish(); // rows were appended unpublished, once per row would allocate a view each
+        dirtyMonths = replayed;
+        if (Files.exists(rotated) || (source != null && source != storage)) {
+            // crashed mid-compaction, or the storage format changed: fold everything into the
+            // configured snapshot now so the next rotation can't clobber it
+            Set<Integer> months = new HashSet<>(replayed);
+            if (source != storage) {
+                for (int r = 0; r < into.size(); r++) months.add(ExpensePartitions.key(into.epochDay(r)));
+            }
+            ExpenseMetrics.global().add(ExpenseMetrics.Counter.BYTES_WRITTEN, writeSnapshot(into, lastSeq, months));
+            Files.deleteIfExists(rotated);
+            dirtyMonths = new HashSet<>();
+        }
+        channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return stats;
+    }
+
+    /**
+     * Loads the newest snapshot (ties go to the configured layout), so switching expense.storage
+     * either way keeps every row. Sets lastSeq to its seq and returns which layout it came from,
+     * or null if there is none.
+     */
+    private ExpenseConfig.Storage loadSnapshot(ExpenseStore into, int fromDay, ExpenseCsvReader.Stats stats) throws IOException {
+        Map<ExpenseConfig.Storage, Long> seqs = new EnumMap<>(ExpenseConfig.Storage.class);
+        if (Files.exists(csvSnapshot)) seqs.put(ExpenseConfig.Storage.CSV, csvSeq(csvSnapshot));
+        if (Files.exists(binSnapshot)) {
+            try {
+                seqs.put(ExpenseConfig.Storage.BINARY, ExpenseBinaryFile.seq(binSnapshot));
+            } catch (IOException ex) {
+                seqs.put(ExpenseConfig.Storage.BINARY, Long.MAX_VALUE); // let open() report what is wrong with it
+            }
+        }
+        long partsSeq = ExpensePartitions.seq(partitions.dir());
+        if (partsSeq >= 0) seqs.put(ExpenseConfig.Storage.PARTITIONED, partsSeq);
+        if (storage == ExpenseConfig.Storage.PARTITIONED || partsSeq >= 0) partitions.open();
+
+        List<ExpenseConfig.Storage> order = new ArrayList<>(seqs.keySet());
+        order.sort(Comparator.comparingLong((ExpenseConfig.Storage s) -> seqs.get(s)).reversed()
+                .thenComparing(s -> s != storage));
+        for (int i = 0; i < order.size(); i++) {
+            ExpenseConfig.Storage source = order.get(i);
+            // only a snapshot that is already in the configured layout may stay partly on disk
+            int from = source == storage ? fromDay : Integer.MIN_VALUE;
+            try {
+                switch (source) {
+                    case CSV: lastSeq = loadCsv(into, stats); break;
+                    case BINARY: lastSeq = loadBinary(into, from, stats); break;
+                    default: lastSeq = loadPartitions(into, from, stats); break;
+                }
+                return source;
+            } catch (IOException ex) {
+                if (i == order.size() - 1) throw ex;
+                System.out.println(RED + ex.getMessage() + "; loading the " + order.get(i + 1).name().toLowerCase()
+                        + " snapshot instead." + RESET);
+                if (source == ExpenseConfig.Storage.BINARY) {
+                    // keep the damaged file for inspection instead of overwriting it on the next compaction
+                    Files.move(binSnapshot, Paths.get(binSnapshot + ".corrupt"), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+        lastSeq = 0;
+        return null;
+    }
+
+    private long loadCsv(ExpenseStore into, ExpenseCsvReader.Stats stats) throws IOException {
+        long[] snapSeq = {0};
+        stats.merge(new ExpenseCsvReader(false).read(csvSnapshot, new ExpenseCsvReader.RowSink() {
+            @Override public void row(long seq, String name, String category, long cents, int day, String notes) {
+                into.appendUnpublished(name, category, cents, day, notes);
+            }
+            @Override public void directive(String line) {
+                if (line.startsWith("#seq,")) snapSeq[0] = Long.parseLong(line.substring(5).trim());
+            }
+        }));
+        return snapSeq[0];
+    }
+
+    private long loadBinary(ExpenseStore into, int fromDay, ExpenseCsvReader.Stats stats) throws IOException {
+        ExpenseBinaryFile file = ExpenseBinaryFile.open(binSnapshot);
+        IntList skipped = new IntList();
+        stats.merge(file.read(fromDay, (seq, name, category, cents, day, notes) ->
+                into.appendUnpublished(name, category, cents, day, notes), skipped));
+        if (!skipped.isEmpty()) history.add(new ExpenseBinaryFile.Slice(file, skipped.toArray()));
+        return file.seq();
+    }
+
+    // Months before fromDay are only mapped; the rest are checked first so a bad partition
+    // fails the load before any of its rows are added
+    private long loadPartitions(ExpenseStore into, int fromDay, ExpenseCsvReader.Stats stats) throws IOException {
+        NavigableMap<Integer, ExpenseBinaryFile> files = partitions.files();
+        int firstLoaded = fromDay == Integer.MIN_VALUE ? Integer.MIN_VALUE : ExpensePartitions.key(fromDay);
+        for (ExpenseBinaryFile f : files.tailMap(firstLoaded, true).values()) f.verify();
+        for (Map.Entry<Integer, ExpenseBinaryFile> en : files.entrySet()) {
+            if (en.getKey() < firstLoaded) {
+                history.add(new ExpenseBinaryFile.Slice(en.getValue(), null));
+                continue;
+            }
+            stats.merge(en.getValue().read((seq, name, category, cents, day, notes) ->
+                    into.appendUnpublished(name, category, cents, day, notes)));
+        }
+        return partitions.seq();
+    }
+
+    /** Parts of on-disk snapshots that a lazy replay did not load, oldest partition first. */
+    List<ExpenseBinaryFile.Slice> history() {
+        return Collections.unmodifiableList(history);
+    }
+
+    private static long csvSeq(Path csv) throws IOException {
+        try (BufferedReader r = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            String first = r.readLine();
+            return first != null && first.startsWith("#seq,") ? Long.parseLong(first.substring(5).trim()) : 0;
+        } catch (NumberFormatException | UncheckedIOException ex) {
+            return 0;
+        }
+    }
+
+    // Applies the records of a segment that the snapshot does not already hold; returns how many,
+    // and collects the months they fall in
+    private int replaySegment(Path segment, IntToLongFunction folded, ExpenseStore into, ExpenseCsvReader.Stats stats,
+                              Set<Integer> months) throws IOException {
+        if (!Files.exists(segment)) return 0;
+        int[] count = {0};
+        stats.merge(new ExpenseCsvReader(true).read(segment, (seq, name, category, cents, day, notes) -> {
+            if (seq > lastSeq) lastSeq = seq;
+            if (seq <= folded.applyAsLong(day)) return; // already folded into the snapshot
+            into.appendUnpublished(name, category, cents, day, notes);
+            months.add(ExpensePartitions.key(day));
+            count[0]++;
+        }));
+        return count[0];
+    }
+
+    /* ------------ Append ------------ */
+
+    synchronized void append(Expense e) throws IOException {
+        StringBuilder sb = new StringBuilder(96).append(++lastSeq).append(',');
+        String line = ExpenseCsvWriter.record(sb, e.getName(), e.getCategory(), e.getCents(), e.getDate(), e.getNotes())
+                .append('\n').toString();
+        ByteBuffer buf = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (buf.hasRemaining()) channel.write(buf);
+        ExpenseMetrics.global().add(ExpenseMetrics.Counter.BYTES_WRITTEN, buf.capacity());
+        sinceRotate++;
+        dirtyMonths.add(ExpensePartitions.key(e.getDate()));
+        if (++pending >= SYNC_EVERY) sync();
+    }
+
+    /** Appends rows [from, to) of {@code rows} with a single group-commit fsync at the end. */
+    synchronized void appendAll(ExpenseStore rows, int from, int to) throws IOException {
+        StringBuilder sb = new StringBuilder(1 << 16);
+        int lastDay = Integer.MIN_VALUE;
+        for (int r = from; r < to; r++) {
+            if (rows.epochDay(r) != lastDay) {
+                lastDay = rows.epochDay(r);
+                dirtyMonths.add(ExpensePartitions.key(lastDay));
+            }
+            sb.append(++lastSeq).append(',');
+            ExpenseCsvWriter.record(sb, rows.name(r), rows.category(r), rows.cents(r), rows.date(r), rows.notes(r)).append('\n');
+            if (sb.length() >= (1 << 16) || r == to - 1) {
+                ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+                while (buf.hasRemaining()) channel.write(buf);
+                ExpenseMetrics.global().add(ExpenseMetrics.Counter.BYTES_WRITTEN, buf.capacity());
+                sb.setLength(0);
+            }
+        }
+        sinceRotate += to - from;
+        pending += to - from;
+        sync();
+    }
+
+    synchronized void sync() throws IOException {
+        if (pending == 0 || channel == null) return;
+        channel.force(false);
+        pending = 0;
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException ex) {
+            ExpenseMetrics.global().error(ExpenseMetrics.Op.SAVE);
+            System.out.println(RED + "Error syncing expenses journal." + RESET);
+        }
+    }
+
+    /* ------------ Compaction ------------ */
+
+    /** True once the active segment is big enough and no compaction is running. */
+    synchronized boolean needsCompaction() {
+        return sinceRotate >= COMPACT_EVERY && (compaction == null || compaction.isDone());
+    }
+
+    /**
+     * Rotates the active segment and folds it into a new snapshot in the background.
+     * {@code rows} must hold exactly the expenses covered by every record appended so far.
+     * If the last compaction failed, its segment is still waiting in {@code rotated}; the active
+     * segment then stays where it is (moving it would overwrite those records) and this round
+     * folds both, together with the months the failed round handed back.
+     */
+    synchronized void compact(ExpenseStore rows) throws IOException {
+        if (compaction != null && !compaction.isDone()) return;
+        sync();
+        if (!Files.exists(rotated)) {
+            channel.close();
+            Files.move(journal, rotated, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        sinceRotate = 0;
+        long upTo = lastSeq;
+        Set<Integer> months = dirtyMonths;
+        months.addAll(unfoldedMonths);
+        unfoldedMonths.removeAll(months);
+        dirtyMonths = new HashSet<>();
+        compaction = background.submit(() -> {
+            try (ExpenseMetrics.Timer t = ExpenseMetrics.time(ExpenseMetrics.Op.COMPACT).rows(rows.size())) {
+                try {
+                    ExpenseMetrics.global().add(ExpenseMetrics.Counter.BYTES_WRITTEN, writeSnapshot(rows, upTo, months));
+                    Files.deleteIfExists(rotated);
+                } catch (IOException ex) {
+                    t.failed();
+                    unfoldedMonths.addAll(months); // not under the journal lock: close() waits for this task holding it
+                    System.out.println(RED + "Error compacting expenses journal." + RESET);
+                }
+            }
+        });
+    }
+
+    // Partitioned storage rewrites only {@code months}; the single-file layouts rewrite everything.
+    // Returns the bytes written.
+    private long writeSnapshot(ExpenseStore rows, long upTo, Set<Integer> months) throws IOException {
+        if (storage == ExpenseConfig.Storage.PARTITIONED) return writePartitions(rows, upTo, months);
+        Path snapshot = storage == ExpenseConfig.Storage.BINARY ? binSnapshot : csvSnapshot;
+        Path tmp = Paths.get(snapshot + ".tmp");
+        if (storage == ExpenseConfig.Storage.BINARY) {
+            // rows left on disk go first, decoded a chunk at a time so the rewrite stays bounded
+            List<ExpenseBinaryFile.Slice> slices = new ArrayList<>();
+            List<Integer> starts = new ArrayList<>();
+            for (ExpenseBinaryFile.Slice slice : history) {
+                for (int from = 0; from < slice.size(); from += HISTORY_CHUNK) {
+                    slices.add(slice);
+                    starts.add(from);
+                }
+            }
+            List<ExpenseStore> parts = new AbstractList<ExpenseStore>() {
+                @Override public ExpenseStore get(int i) {
+                    if (i == slices.size()) return rows;
+                    int from = starts.get(i);
+                    return slices.get(i).load(from, Math.min(slices.get(i).size(), from + HISTORY_CHUNK));
+                }
+                @Override public int size() { return slices.size() + 1; }
+            };
+            ExpenseBinaryFile.write(tmp, parts, upTo);
+        } else {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+                 Writer w = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(out), StandardCharsets.UTF_8))) {
+                w.write("#seq," + upTo + "\n");
+                StringBuilder sb = new StringBuilder(128);
+                for (int r = 0; r < rows.size(); r++) {
+                    sb.setLength(0);
+                    ExpenseCsvWriter.record(sb, rows.name(r), rows.category(r), rows.cents(r), rows.date(r), rows.notes(r));
+                    w.append(sb).write('\n');
+                }
+                w.flush();
+                out.force(true);
+            }
+        }
+        Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Files.size(snapshot);
+    }
+
+    private long writePartitions(ExpenseStore rows, long upTo, Set<Integer> months) throws IOException {
+        // a month left on disk by a lazy replay keeps those rows; the store adds everything newer
+        Map<Integer, ExpenseStore> out = new HashMap<>();
+        for (int month : months) out.put(month, new ExpenseStore());
+        for (ExpenseBinaryFile.Slice slice : history) {
+            ExpenseStore target = out.get(ExpensePartitions.key(slice.file.epochDay(slice.row(0))));
+            if (target == null) continue;
+            ExpenseStore old = slice.load(0, slice.size());
+            for (int r = 0; r < old.size(); r++) target.appendUnpublished(old.name(r), old.category(r), old.cents(r), old.epochDay(r), old.notes(r));
+        }
+        int lastDay = Integer.MIN_VALUE;
+        ExpenseStore target = null;
+        for (int r = 0; r < rows.size(); r++) {
+            if (rows.epochDay(r) != lastDay) {
+                lastDay = rows.epochDay(r);
+                target = out.get(ExpensePartitions.key(lastDay));
+            }
+            if (target != null) target.appendUnpublished(rows.name(r), rows.category(r), rows.cents(r), rows.epochDay(r), rows.notes(r));
+        }
+        for (ExpenseStore month : out.values()) month.publish();
+        return partitions.write(out, upTo);
+    }
+
+    /* ------------ Shutdown ------------ */
+
+    @Override
+    public synchronized void close() throws IOException {
+        background.shutdown();
+        try {
+            if (compaction != null) compaction.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ignored) {}
+        if (channel != null && channel.isOpen()) {
+            sync();
+            channel.close();
+        }
+    }
+}
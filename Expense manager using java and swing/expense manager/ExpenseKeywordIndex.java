@@ -0,0 +1,109 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inverted n-gram index over name, notes and category for substring keyword search.
+ *
+ * Every 1-, 2- and 3-character gram of each lower-cased field maps to the sorted row ids that
+ * contain it. Queries of up to 3 characters are answered straight from one posting list; longer
+ * queries take the rarest of their trigrams and only verify those candidates, so a search costs
+ * roughly the number of hits instead of the ledger size. One writer at a time; searches run
+ * concurrently against a store snapshot and ignore rows appended after it.
+ */
+class ExpenseKeywordIndex {
+    private static final int MAX_GRAM = 3;
+
+    private final Map<Long, IntList> postings = new ConcurrentHashMap<>();
+
+    void add(int row, ExpenseStore data) {
+        addField(row, data.name(row));
+        addField(row, data.notes(row));
+        addField(row, data.category(row));
+    }
+
+    private void addField(int row, String field) {
+        String s = field.toLowerCase();
+        for (int i = 0; i < s.length(); i++) {
+            for (int len = 1; len <= MAX_GRAM && i + len <= s.length(); len++) {
+                IntList p = postings.computeIfAbsent(gram(s, i, len), k -> new IntList(4));
+                if (p.isEmpty() || p.last() != row) p.add(row); // one entry per row
+            }
+        }
+    }
+
+    /** Packs up to three chars plus the length into one key, so indexing never builds substrings. */
+    private static long gram(String s, int from, int len) {
+        long key = len;
+        for (int i = 0; i < len; i++) key = (key << 16) | s.charAt(from + i);
+        return key;
+    }
+
+    /** Row ids of {@code data} whose name, notes or category contain {@code keyword}, ignoring case, in row order. */
+    IntList search(String keyword, ExpenseStore data) {
+        String q = keyword.toLowerCase();
+        int limit = data.size();
+        IntList out = new IntList();
+        if (q.isEmpty()) {
+            for (int r = 0; r < limit; r++) out.add(r);
+            return out;
+        }
+        if (q.length() <= MAX_GRAM) {
+            IntList p = postings.get(gram(q, 0, q.length()));
+            if (p != null) out.addAllBelow(p, limit);
+            return out;
+        }
+        IntList best = null;
+        for (int i = 0; i + MAX_GRAM <= q.length(); i++) {
+            IntList p = postings.get(gram(q, i, MAX_GRAM));
+            if (p == null) return out; // some trigram never occurs
+            if (best == null || p.size() < best.size()) best = p;
+        }
+        for (int i = 0, n = best.size(); i < n; i++) {
+            int r = best.get(i);
+            if (r >= limit) break;
+            if (contains(data.name(r), q) || contains(data.notes(r), q) || contains(data.category(r), q)) out.add(r);
+        }
+        return out;
+    }
+
+    /**
+     * Upper bound on the rows {@link #search} would verify: the size of the posting list it would
+     * start from, or {@code Integer.MAX_VALUE} for an empty keyword.
+     */
+    int estimate(String keyword) {
+        String q = keyword.toLowerCase();
+        if (q.isEmpty()) return Integer.MAX_VALUE;
+        if (q.length() <= MAX_GRAM) {
+            IntList p = postings.get(gram(q, 0, q.length()));
+            return p == null ? 0 : p.size();
+        }
+        int best = Integer.MAX_VALUE;
+        for (int i = 0; i + MAX_GRAM <= q.length(); i++) {
+            IntList p = postings.get(gram(q, i, MAX_GRAM));
+            if (p == null) return 0;
+            best = Math.min(best, p.size());
+        }
+        return best;
+    }
+
+    /** Same matching as {@link #search}, by scanning {@code data}; for stores that have no index. */
+    static IntList scan(String keyword, ExpenseStore data) {
+        IntList out = new IntList();
+        for (int r = 0; r < data.size(); r++) {
+            if (matches(data, r, keyword)) out.add(r);
+        }
+        return out;
+    }
+
+    /** True when row {@code r}'s name, notes or category contains {@code keyword}, ignoring case. */
+    static boolean matches(ExpenseStore data, int r, String keyword) {
+        return contains(data.name(r), keyword) || contains(data.notes(r), keyword) || contains(data.category(r), keyword);
+    }
+
+    private static boolean contains(String s, String q) {
+        for (int i = 0, last = s.length() - q.length(); i <= last; i++) {
+            if (s.regionMatches(true, i, q, 0, q.length())) return true;
+        }
+        return false;
+    }
+}
@@ -1,299 +1,874 @@
-import java.io.*;
-import java.util.*;
-import java.time.LocalDate;
-import java.util.stream.Collectors;
-
-public class ExpenseManager {
-    private List<Expense> expenses = new ArrayList<>();
-    private final String fileName = "expenses.csv";
-
-    // Budgets
-    private final Map<String, Double> budgets = new HashMap<>();
-    private final String budgetsFile = "budgets.csv";
-
-    // ANSI colors (used in console methods)
-    private final String RESET = "\u001B[0m";
-    private final String RED = "\u001B[31m";
-    private final String GREEN = "\u001B[32m";
-    private final String YELLOW = "\u001B[33m";
-    private final String CYAN = "\u001B[36m";
-
-    private final String[] categories = {"Food", "Transport", "Bills", "Entertainment", "Misc"};
-
-    public ExpenseManager() {
-        loadExpenses();
-        loadBudgets();
-        // default budgets if file empty
-        for (String c : categories) budgets.putIfAbsent(c, 0.0);
-    }
-
-    public String[] getCategories() { return categories; }
-
-    /* ------------ Added getters for GUI ------------ */
-    public List<Expense> getAllExpenses() {
-        return Collections.unmodifiableList(expenses);
-    }
-    public Map<String, Double> getBudgetsCopy() {
-        return new HashMap<>(budgets);
-    }
-
-    /* ------------ Core Ops ------------ */
-
-    public void addExpense(String name, String category, double amount, LocalDate date, String notes) {
-        Expense e = new Expense(name, category, amount, date, notes);
-        expenses.add(e);
-        saveExpenses();
-        budgetAlertFor(category); // alert (if any)
-    }
-
-    public void showExpenses() {
-        System.out.println(CYAN + "\n--- All Expenses ---" + RESET);
-        printHeader();
-        for (Expense e : expenses) printRow(e);
-        printTotal(expenses);
-    }
-
-    public void showCategorySummary() {
-        System.out.println(CYAN + "\n--- Category-wise Summary ---" + RESET);
-        Map<String, Double> summary = categoryTotals(expenses);
-        double total = summary.values().stream().mapToDouble(Double::doubleValue).sum();
-        double maxAmount = summary.values().stream().mapToDouble(Double::doubleValue).max().orElse(1.0);
-
-        for (String cat : categories) {
-            double amt = summary.getOrDefault(cat, 0.0);
-            int bars = (int)((amt / (maxAmount == 0 ? 1 : maxAmount)) * 30);
-            double percent = total == 0 ? 0 : (amt / total) * 100.0;
-            System.out.printf("%-15s | ", cat);
-            for (int i = 0; i < bars; i++) System.out.print("#");
-            System.out.printf(" %.2f (%.1f%%)\n", amt, percent);
-        }
-        System.out.printf(GREEN + "Total Expenses: %.2f\n" + RESET, total);
-    }
-
-    public void showChart() {
-        System.out.println(CYAN + "\n--- Expense Chart (per item) ---" + RESET);
-        double maxAmount = expenses.stream().mapToDouble(Expense::getAmount).max().orElse(1.0);
-        for (Expense e : expenses) {
-            int bars = (int)((e.getAmount() / maxAmount) * 50);
-            String color = e.getAmount() > maxAmount * 0.7 ? RED : e.getAmount() > maxAmount * 0.3 ? YELLOW : GREEN;
-            System.out.printf("%-15s | ", e.getName());
-            System.out.print(color);
-            for (int i = 0; i < bars; i++) System.out.print("#");
-            System.out.print(RESET);
-            System.out.printf(" %.2f\n", e.getAmount());
-        }
-    }
-
-    public void showTopExpenses(int n) {
-        System.out.println(CYAN + "\n--- Top " + n + " Expenses ---" + RESET);
-        List<Expense> list = expenses.stream()
-                .sorted(Comparator.comparing(Expense::getAmount).reversed())
-                .limit(n)
-                .collect(Collectors.toList());
-        printHeader();
-        for (Expense e : list) printRow(e);
-        printTotal(list);
-    }
-
-    public void showMonthlyReport(int month, int year) {
-        System.out.println(CYAN + "\n--- Monthly Report: " + month + "/" + year + " ---" + RESET);
-        List<Expense> list = expenses.stream()
-                .filter(e -> e.getDate().getMonthValue() == month && e.getDate().getYear() == year)
-                .collect(Collectors.toList());
-        if (list.isEmpty()) { System.out.println("No data for this month."); return; }
-        printHeader();
-        for (Expense e : list) printRow(e);
-        printTotal(list);
-        System.out.println(CYAN + "\nCategory Breakdown:" + RESET);
-        Map<String, Double> sum = categoryTotals(list);
-        sum.forEach((k,v) -> System.out.printf("%-15s : %.2f\n", k, v));
-    }
-
-    /* ------------ Search ------------ */
-
-    public void searchByKeyword(String keyword) {
-        String q = keyword.toLowerCase();
-        List<Expense> list = expenses.stream().filter(e ->
-                e.getName().toLowerCase().contains(q) ||
-                        e.getNotes().toLowerCase().contains(q) ||
-                        e.getCategory().toLowerCase().contains(q)
-        ).collect(Collectors.toList());
-        printSearchResult("Keyword: " + keyword, list);
-    }
-
-    public void searchByCategory(String category) {
-        List<Expense> list = expenses.stream()
-                .filter(e -> e.getCategory().equalsIgnoreCase(category))
-                .collect(Collectors.toList());
-        printSearchResult("Category: " + category, list);
-    }
-
-    public void searchByDateRange(LocalDate from, LocalDate to) {
-        List<Expense> list = expenses.stream()
-                .filter(e -> ( !e.getDate().isBefore(from) && !e.getDate().isAfter(to) ))
-                .collect(Collectors.toList());
-        printSearchResult("Date range: " + from + " to " + to, list);
-    }
-
-    private void printSearchResult(String title, List<Expense> list) {
-        System.out.println(CYAN + "\n--- Search (" + title + ") ---" + RESET);
-        if (list.isEmpty()) { System.out.println("No matching expenses."); return; }
-        printHeader();
-        for (Expense e : list) printRow(e);
-        printTotal(list);
-    }
-
-    /* ------------ Budgets & Alerts ------------ */
-
-    public void setBudget(String category, double amount) {
-        budgets.put(category, amount);
-        saveBudgets();
-        System.out.println(GREEN + "Budget set for " + category + ": " + amount + RESET);
-    }
-
-    public void viewBudgets() {
-        System.out.println(CYAN + "\n--- Budgets ---" + RESET);
-        for (String c : categories) {
-            System.out.printf("%-15s : %.2f\n", c, budgets.getOrDefault(c, 0.0));
-        }
-        System.out.println(CYAN + "\n--- Current Spend vs Budget ---" + RESET);
-        Map<String, Double> totals = categoryTotals(expenses);
-        for (String c : categories) {
-            double spent = totals.getOrDefault(c, 0.0);
-            double limit = budgets.getOrDefault(c, 0.0);
-            if (limit <= 0) {
-                System.out.printf("%-15s : Spent %.2f (no budget set)\n", c, spent);
-            } else {
-                String color = spent > limit ? RED : (spent > 0.8 * limit ? YELLOW : GREEN);
-                System.out.print(color);
-                System.out.printf("%-15s : Spent %.2f / Budget %.2f\n", c, spent, limit);
-                System.out.print(RESET);
-            }
-        }
-    }
-
-    private void budgetAlertFor(String category) {
-        double limit = budgets.getOrDefault(category, 0.0);
-        if (limit <= 0) return; // no budget
-        double spent = expenses.stream()
-                .filter(e -> e.getCategory().equalsIgnoreCase(category))
-                .mapToDouble(Expense::getAmount).sum();
-        if (spent > limit) {
-            System.out.println(RED + "⚠ Budget exceeded for " + category +
-                    " (Spent: " + String.format("%.2f", spent) + " / " + String.format("%.2f", limit) + ")" + RESET);
-        } else if (spent > 0.8 * limit) {
-            System.out.println(YELLOW + "⚠ Nearing budget for " + category +
-                    " (Spent: " + String.format("%.2f", spent) + " / " + String.format("%.2f", limit) + ")" + RESET);
-        }
-    }
-
-    /* ------------ Export ------------ */
-
-    public void exportAllToCsv(String outFile) {
-        exportListToCsv(outFile, expenses);
-    }
-
-    public void exportMonthlyToCsv(int month, int year, String outFile) {
-        List<Expense> list = expenses.stream()
-                .filter(e -> e.getDate().getMonthValue() == month && e.getDate().getYear() == year)
-                .collect(Collectors.toList());
-        exportListToCsv(outFile, list);
-    }
-
-    private void exportListToCsv(String outFile, List<Expense> list) {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(outFile))) {
-            pw.println("Name,Category,Amount,Date,Notes");
-            for (Expense e : list) {
-                // Escape commas in notes/name if any
-                String name = e.getName().replace(",", " ");
-                String notes = e.getNotes().replace(",", " ");
-                pw.println(name + "," + e.getCategory() + "," + e.getAmount() + "," + e.getDate() + "," + notes);
-            }
-            System.out.println(GREEN + "Exported " + list.size() + " rows to " + outFile + RESET);
-        } catch (IOException ex) {
-            System.out.println(RED + "Export failed: " + ex.getMessage() + RESET);
-        }
-    }
-
-    /* ------------ Persistence ------------ */
-
-    private void saveExpenses() {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(fileName))) {
-            for (Expense e : expenses) pw.println(e.toString());
-        } catch (IOException ex) {
-            System.out.println(RED + "Error saving expenses." + RESET);
-        }
-    }
-
-    private void loadExpenses() {
-        File file = new File(fileName);
-        if (!file.exists()) return;
-        try (Scanner sc = new Scanner(file)) {
-            while (sc.hasNextLine()) {
-                String[] parts = sc.nextLine().split(",", -1); // keep empty notes
-                if (parts.length >= 5) {
-                    String name = parts[0];
-                    String category = parts[1];
-                    double amount = Double.parseDouble(parts[2]);
-                    LocalDate date = LocalDate.parse(parts[3]);
-                    String notes = parts[4];
-                    expenses.add(new Expense(name, category, amount, date, notes));
-                }
-            }
-        } catch (Exception ex) {
-            System.out.println(RED + "Error loading expenses." + RESET);
-        }
-    }
-
-    private void saveBudgets() {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(budgetsFile))) {
-            pw.println("Category,Budget");
-            for (String c : categories) {
-                pw.println(c + "," + budgets.getOrDefault(c, 0.0));
-            }
-        } catch (IOException ex) {
-            System.out.println(RED + "Error saving budgets." + RESET);
-        }
-    }
-
-    private void loadBudgets() {
-        File f = new File(budgetsFile);
-        if (!f.exists()) return;
-        try (Scanner sc = new Scanner(f)) {
-            if (sc.hasNextLine()) sc.nextLine(); // skip header
-            while (sc.hasNextLine()) {
-                String[] p = sc.nextLine().split(",", -1);
-                if (p.length >= 2) {
-                    String cat = p[0];
-                    double amt = Double.parseDouble(p[1]);
-                    budgets.put(cat, amt);
-                }
-            }
-        } catch (Exception ex) {
-            System.out.println(YELLOW + "Budgets file invalid, using defaults." + RESET);
-        }
-    }
-
-    /* ------------ Helpers ------------ */
-
-    private Map<String, Double> categoryTotals(List<Expense> list) {
-        Map<String, Double> map = new HashMap<>();
-        for (Expense e : list) map.put(e.getCategory(), map.getOrDefault(e.getCategory(), 0.0) + e.getAmount());
-        return map;
-    }
-
-    private void printHeader() {
-        System.out.printf("%-15s %-15s %10s %12s %-20s\n", "Name", "Category", "Amount", "Date", "Notes");
-        System.out.println("--------------------------------------------------------------------------------");
-    }
-
-    private void printRow(Expense e) {
-        System.out.printf("%-15s %-15s %10.2f %12s %-20s\n",
-                e.getName(), e.getCategory(), e.getAmount(), e.getDate(), e.getNotes());
-    }
-
-    private void printTotal(List<Expense> list) {
-        double total = list.stream().mapToDouble(Expense::getAmount).sum();
-        System.out.printf(GREEN + "Total: %.2f\n" + RESET, total);
-    }
-}
\ No newline at end of file
+import java.io.*;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Expense ledger. Safe to share between ingest threads and the UI: writers take a single
+ * write lock (appends are cheap and ordered, which keeps the journal in row order), while
+ * readers work on an O(1) snapshot of the column store and never block the writer. A row joins
+ * the readers' snapshot only once the indexes and totals include it, so an index lookup and a
+ * scan of the same snapshot always agree.
+ *
+ * In lazy mode ({@link ExpenseConfig#lazyLoading()}) the store holds only recent months plus
+ * new rows; older months stay in the mapped snapshot and are paged in by the queries that reach
+ * them. Totals, rollups and budget checks still cover the whole history.
+ */
+public class ExpenseManager {
+    private final ExpenseStore expenses = new ExpenseStore();
+    private volatile ExpenseStore published = expenses.snapshot(); // rows indexed so far; what readers see
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final String fileName = ExpenseConfig.dataFile("expenses.csv");
+    private final ExpenseJournal journal = new ExpenseJournal(fileName, ExpenseConfig.storage());
+    private final ExpenseAggregates aggregates = new ExpenseAggregates();
+    private final ExpenseRollups rollups = new ExpenseRollups();
+    private final ExpenseDateIndex dateIndex = new ExpenseDateIndex();
+    private final ExpenseKeywordIndex keywordIndex = new ExpenseKeywordIndex();
+    private final ExpenseResultCache cache = new ExpenseResultCache(ExpenseConfig.resultCacheBytes());
+    private ExpenseCsvReader.Stats loadStats = new ExpenseCsvReader.Stats();
+    private ExpensePager pager; // older months left on disk; null unless loaded lazily
+    private static final int HISTORY_CHUNK = 64 * 1024; // rows per column read when totalling history
+
+    // Budgets
+    private final ExpenseBudgets budgets = new ExpenseBudgets(ExpenseConfig.alertThresholds());
+    private final String budgetsFile = ExpenseConfig.dataFile("budgets.csv");
+
+    // ANSI colors (used in console methods)
+    private final String RESET = "\u001B[0m";
+    private final String RED = "\u001B[31m";
+    private final String GREEN = "\u001B[32m";
+    private final String YELLOW = "\u001B[33m";
+    private final String CYAN = "\u001B[36m";
+
+    private final String[] categories = {"Food", "Transport", "Bills", "Entertainment", "Misc"};
+
+    private final Thread shutdownHook;
+
+    public ExpenseManager() {
+        loadExpenses();
+        loadBudgets();
+        budgets.addListener(ExpenseBudgets.consoleListener());
+        if (ExpenseConfig.alertLog() != null) budgets.addListener(ExpenseBudgets.fileListener(ExpenseConfig.alertLog()));
+        budgets.arm(); // only crossings after startup alert
+        shutdownHook = new Thread(this::close, "expense-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /** Progress callback for long-running operations; return false to cancel. */
+    public interface Progress {
+        boolean update(long done, long total);
+
+        Progress NONE = (done, total) -> true;
+    }
+
+    public String[] getCategories() { return categories; }
+
+    /* ------------ Added getters for GUI ------------ */
+    /**
+     * Consistent point-in-time view; later inserts don't show up in (or break) an iteration.
+     * In lazy mode this pages in and copies the whole history.
+     */
+    public List<Expense> getAllExpenses() {
+        ExpenseStore snap = published;
+        if (pager == null) return Collections.unmodifiableList(snap);
+        List<Expense> all = new ArrayList<>(pager.size() + snap.size());
+        pager.forEachPage(null, null, all::addAll);
+        all.addAll(snap);
+        return Collections.unmodifiableList(all);
+    }
+    /** Budget limits by category; 0 means no budget. */
+    public Map<String, Double> getBudgetsCopy() {
+        Map<String, Double> copy = new HashMap<>();
+        for (String c : categories) copy.put(c, 0.0);
+        budgets.budgets().forEach((c, b) -> copy.put(c, b.limit));
+        return copy;
+    }
+    /** Budget alerts are delivered on a background thread, after the insert that caused them. */
+    public void addBudgetListener(ExpenseBudgets.Listener listener) {
+        budgets.addListener(listener);
+    }
+    public void removeBudgetListener(ExpenseBudgets.Listener listener) {
+        budgets.removeListener(listener);
+    }
+    ExpenseBudgets budgets() {
+        return budgets;
+    }
+    public Map<String, Double> getCategoryTotals() {
+        return aggregates.categoryTotals();
+    }
+    public Map<String, Double> getMonthlyTotals(int month, int year) {
+        return aggregates.monthTotals(month, year);
+    }
+    public List<Expense> getMonthlyExpenses(int month, int year) {
+        if (month < 1 || month > 12) return new ArrayList<>();
+        YearMonth ym = YearMonth.of(year, month);
+        return between(ym.atDay(1), ym.atEndOfMonth());
+    }
+    /** Total in [from, to] from the daily rollups; {@code category} null means all categories. */
+    public double getRangeTotal(String category, LocalDate from, LocalDate to) {
+        return rollups.sum(category, from, to);
+    }
+    public List<ExpenseRollups.Bucket> getTrend(String category, LocalDate from, LocalDate to, ExpenseRollups.Granularity g) {
+        return rollups.trend(category, from, to, g);
+    }
+    public double[] getMovingAverage(String category, LocalDate from, LocalDate to, int windowDays) {
+        return rollups.movingAverage(category, from, to, windowDays);
+    }
+
+    /* ------------ Row-level access for the table model ------------ */
+    ExpenseStore snapshot() {
+        return published;
+    }
+    /** Older months left on disk in lazy mode, paged in as they are read; null when every row is in memory. */
+    ExpensePager history() {
+        return pager;
+    }
+    /** Matching row ids of {@code snap}, in date order; rows on disk are not included (see {@link #queryStore}). */
+    IntList queryRows(ExpenseQuery q, ExpenseStore snap) {
+        return result(q, snap).recentRows();
+    }
+    /**
+     * Every row matching {@code q} as of {@code snap}, the months on disk included, copied into
+     * one store in date order. For views that must cover the whole ledger in lazy mode.
+     */
+    ExpenseStore queryStore(ExpenseQuery q, ExpenseStore snap) {
+        ExpenseStore out = new ExpenseStore();
+        for (Expense e : result(q, snap)) out.appendUnpublished(e.getName(), e.getCategory(), e.getCents(), (int) e.getDate().toEpochDay(), e.getNotes());
+        out.publish();
+        return out;
+    }
+    private ExpenseQuery.Result result(ExpenseQuery q, ExpenseStore snap) {
+        // a cached result from a newer snapshot could name rows this one doesn't have
+        Object hit = cache.get(q);
+        if (hit != null && ((ExpenseQuery.Result) hit).snapshotSize() <= snap.size()) return (ExpenseQuery.Result) hit;
+        ExpenseQuery.Result result = new ExpenseQuery.Result(q, snap, pager, dateIndex, keywordIndex);
+        cache.put(q, q, result, resultBytes(result), snap.size()); // dropped if a row past snap was indexed
+        return result;
+    }
+    /**
+     * {@code render()}'s output, cached under {@code key} until a row inside {@code scope} is added.
+     * A null (cancelled) render is returned but not cached.
+     */
+    String cachedReport(Object key, ExpenseQuery scope, Supplier<String> render) {
+        return cache.computeIfAbsent(key, scope, published.size(), render, text -> 64 + 2L * text.length());
+    }
+
+    /* ------------ Core Ops ------------ */
+
+    /** Adds one expense; like {@link #addExpenses}, an invalid one (see validate) is rejected with nothing stored. */
+    public void addExpense(String name, String category, double amount, LocalDate date, String notes) {
+        try (ExpenseMetrics.Timer t = ExpenseMetrics.time(ExpenseMetrics.Op.ADD)) {
+            Expense e = new Expense(name, category, amount, date, notes);
+            String problem = validate(e);
+            if (problem != null) throw new IllegalArgumentException(problem);
+            t.rows(1);
+            writeLock.lock();
+            try {
+                int row = expenses.append(e.getName(), e.getCategory(), e.getCents(), (int) date.toEpochDay(), e.getNotes());
+                index(row);
+                checkBudgets(row, row + 1);
+                publish();
+                saveExpense(e);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Inserts a batch of expenses with one journal write and one budget check per affected
+     * category. The whole batch is validated first; if any row is invalid nothing is added.
+     */
+    public void addExpenses(Collection<Expense> batch) {
+        try (ExpenseMetrics.Timer t = ExpenseMetrics.time(ExpenseMetrics.Op.ADD)) {
+            int i = 0;
+            for (Expense e : batch) {
+                String problem = validate(e);
+                if (problem != null) throw new IllegalArgumentException("Expense #" + i + ": " + problem);
+                i++;
+            }
+            t.rows(batch.size());
+            writeLock.lock();
+            try {
+                int first = expenses.size();
+                for (Expense e : batch) {
+                    expenses.appendUnpublished(e.getName(), e.getCategory(), e.getCents(), (int) e.getDate().toEpochDay(), e.getNotes());
+                }
+                commitBatch(first);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    // null if e can be stored; line breaks would split its journal and snapshot records, which replay drops
+    static String validate(Expense e) {
+        if (e == null) return "missing";
+        if (e.getName() == null || e.getCategory() == null || e.getDate() == null) return "name, category and date are required";
+        if (e.getCategory().isEmpty()) return "category is empty";
+        if (hasLineBreak(e.getName()) || hasLineBreak(e.getCategory()) || hasLineBreak(e.getNotes())) return "line breaks are not allowed";
+        return null;
+    }
+
+    private static boolean hasLineBreak(String s) {
+        return s.indexOf('\n') >= 0 || s.indexOf('\r') >= 0;
+    }
+
+    /**
+     * Bulk-imports a CSV file (expenses.csv layout or an export with its header row), parsing
+     * chunks in parallel. Rows keep file order; indexes, the journal and budget alerts are
+     * updated once for the whole batch. Returns the number of rows imported.
+     */
+    public int importCsv(String inFile) {
+        return importCsv(inFile, Progress.NONE);
+    }
+
+    /**
+     * {@link #importCsv(String)} that reports parsed bytes to {@code progress}. It can be
+     * cancelled between chunks and before the merge; once the merge starts the import completes.
+     */
+    public int importCsv(String inFile, Progress progress) {
+        try (ExpenseMetrics.Timer t = ExpenseMetrics.time(ExpenseMetrics.Op.IMPORT)) {
+            ExpenseCsvReader.Stats stats = new ExpenseCsvReader.Stats();
+            try {
+                // parsing runs outside the lock; only the ordered merge holds it
+                List<ExpenseStore> batches = ExpenseCsvImporter.parse(new File(inFile).toPath(), stats, progress);
+                if (!progress.update(stats.bytes, stats.bytes)) throw new CancellationException();
+                writeLock.lock();
+                try {
+                    int first = expenses.size();
+                    for (ExpenseStore batch : batches) {
+                        for (int r = 0; r < batch.size(); r++) {
+                            expenses.appendUnpublished(batch.name(r), batch.category(r), batch.cents(r), batch.epochDay(r), batch.notes(r));
+                        }
+                    }
+                    commitBatch(first);
+                } finally {
+                    writeLock.unlock();
+                }
+            } catch (CancellationException ex) {
+                System.out.println(YELLOW + "Import of " + inFile + " cancelled." + RESET);
+                return 0;
+            } catch (IOException ex) {
+                t.failed();
+                System.out.println(RED + "Import failed: " + ex.getMessage() + RESET);
+                return 0;
+            }
+            if (stats.errors > 0) {
+                System.out.println(YELLOW + "Skipped " + stats.errors + " invalid line(s):" + RESET);
+                for (ExpenseCsvReader.LineError err : stats.firstErrors) System.out.println(YELLOW + "  " + err + RESET);
+            }
+            System.out.println(GREEN + "Imported " + stats.rows + " rows from " + inFile + RESET);
+            t.rows(stats.rows);
+            return stats.rows;
+        }
+    }
+
+    public void showExpenses() {
+        try (ExpenseMetrics.Timer t = ExpenseMetrics.time(ExpenseMetrics.Op.REPORT)) {
+            System.out.println(CYAN + "\n--- All Expenses ---" + RESET);
+            ExpenseStore snap = published;
+            try (ExpenseReportWriter out = ExpenseReportWriter.console()) {
+                out.header();
+                long[] total = {snap.totalCents()}; // the rows printed, not whatever was added since
+                forEachHistoryPage(null, null, page -> {
+                    for (int r = 0; r < page.size(); r++) out.row(page, r);
+                    total[0] += page.totalCents();
+                });
+                for (int r = 0; r < snap.size(); r++) out.row(snap, r);
+                printTotal(out, total[0]);
+            }
+            t.rows(aggregates.count());
+        }
+    }
+
+    public void showCategorySummary() {
+        try (ExpenseMetrics.Timer t = ExpenseMetrics.time(ExpenseMetrics.Op.REPORT)) {
+            System.out.println(CYAN + "\n--- Category-wise Summary ---" + RESET);
+            Map<String, Double> summary = aggregates.categoryTotals();
+            double total = aggregates.total();
+            double maxAmount = summary.values().stream().mapToDouble(Double::doubleValue).max().orElse(1.0);
+
+            try (ExpenseReportWriter out = ExpenseReportWriter.console()) {
+                for (String cat : categories) {
+                    double amt = summary.getOrDefault(cat, 0.0);
+                    double percent = total == 0 ? 0 : (amt / total) * 100.0;
+                    out.left(cat, 15).text(" | ").bar(amt, maxAmount == 0 ? 1 : maxAmount, 30)
+                            .ch(' ').amount(amt, 2).text(" (").amount(percent, 1).text("%)").newline();
+                }
+                out.text(GREEN).text("Total Expenses: ").money(aggregates.totalCents(), 0).newline().text(RESET);
+            }
+            t.rows(aggregates.count());
+        }
+    }
+
+    public void showChart() {
+        try (ExpenseMetrics.Timer t = ExpenseMetrics.time(ExpenseMetrics.Op.REPORT)) {
+            System.out.println(CYAN + "\n--- Expense Chart (per item) ---" + RESET);
+            ExpenseStore snap = published;
+            double maxAmount = pager == null ? 0 : pager.maxAmount();
+            for (int r = 0; r < snap.size(); r++) maxAmount = Math.max(maxAmount, snap.amount(r));
+            if (maxAmount == 0) maxAmount = 1.0;
+            double max = maxAmount;
+            try (ExpenseReportWriter out = ExpenseReportWriter.console()) {
+                forEachHistoryPage(null, null, page -> {
+                    for (int r = 0; r < page.size(); r++) printChartRow(out, page, r, max);
+                });
+                for (int r = 0; r < snap.size(); r++) printChartRow(out, snap, r, max);
+            }
+            t.rows(snap.size() + (pager == null ? 0 : pager.size()));
+        }
+    }
+
+    private void printChartRow(ExpenseReportWriter out, ExpenseStore store, int r, double maxAmount) {
+        double amount = store.amount(r);
+        String color = amount > maxAmount * 0.7 ? RED : amount > maxAmount * 0.3 ? YELLOW : GREEN;
+        out.left(store.name(r), 15).text(" | ").text(color).bar(amount, maxAmount, 50).text(RESET)
+                .ch(' ').money(store.cents(r), 0).newline();
+    }
+
+    public void showTopExpenses(int n) {
+        showTopExpenses(n, null, null, null);
+    }
+
+    /** Largest {@code n} spends, optionally limited to a category and/or a date window (nulls = no filter). */
+    public void showTopExpenses(int n, String category, LocalDate from, LocalDate to) {
+        String scope = (category == null ? "" : " " + category) + (from == null && to == null ? "" : " " + from + " to " + to);
+        System.out.println(CYAN + "\n--- Top " + n + scope + " Expenses ---" + RESET);
+        List<Expense> list = topExpenses(n, true, category, from, to);
+        printTable(list);
+    }
+
+    /**
+     * Top ({@code largest}) or bottom {@code n} expenses by amount, best first. Category is
+     * matched case-insensitively; a date window is served from the date index. Uses a bounded
+     * heap, in parallel on large ledgers.
+     */
+    public List<Expense> topExpenses(int n, boolean largest, String category, LocalDate from, LocalDate to) {
+        try (ExpenseMetrics.Timer t = ExpenseMetrics.time(ExpenseMetrics.Op.SEARCH)) {
+            ExpenseStore snap = published;
+            IntList window = null;
+            if (from != null || to != null) {
+                window = dateIndex.range(from == null ? LocalDate.MIN : from, to == null ? LocalDate.MAX : to, snap.size());
+            }
+            List<Expense> list = new ArrayList<>();
+            forEachHistoryPage(from, to, page -> {
+                IntList inRange = new IntList();
+                for (int r = 0; r < page.size(); r++) if (within(page.epochDay(r), from, to)) inRange.add(r);
+                for (int id : ExpenseTopN.select(page, n, largest, category, inRange)) list.add(page.get(id));
+            });
+            for (int id : ExpenseTopN.select(snap, n, largest, category, window)) list.add(snap.get(id));
+            if (pager != null) {
+                // best n of the per-page winners; the sort is stable so ties keep history first
+                list.sort(largest ? Comparator.comparingLong(Expense::getCents).reversed() : Comparator.comparingLong(Expense::getCents));
+                if (list.size() > n) list.subList(Math.max(0, n), list.size()).clear();
+            }
+            t.rows(list.size());
+            return list;
+        }
+    }
+
+    public void showMonthlyReport(int month, int year) {
+        try (ExpenseMetrics.Timer t = ExpenseMetrics.time(ExpenseMetrics.Op.REPORT)) {
+            System.out.println(CYAN + "\n--- Monthly Report: " + month + "/" + year + " ---" + RESET);
+            if (aggregates.monthCount(month, year) == 0) { System.out.println("No data for this month."); return; }
+            Map<String, Double> sum = aggregates.monthTotals(month, year);
+            YearMonth ym = YearMonth.of(year, month);
+            try (ExpenseReportWriter out = ExpenseReportWriter.console()) {
+                out.header();
+                int[] rows = {0};
+                forEachBetween(ym.atDay(1), ym.atEndOfMonth(), (store, r) -> {
+                    out.row(store, r);
+                    rows[0]++;
+                });
+                t.rows(rows[0]);
+                printTotal(out, aggregates.monthCents(month, year));
+                out.text(CYAN).text("\nCategory Breakdown:").text(RESET).newline();
+                sum.forEach((k, v) -> out.left(k, 15).text(" : ").amount(v, 2).newline());
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex); // the visitor above does no I/O
+            }
+        }
+    }
+
+    /** Per-bucket totals over [from, to] with a bar chart; answered from the rollups, no row scan. */
+    public void showTrend(String category, LocalDate from, LocalDate to, ExpenseRollups.Granularity g) {
+        try (ExpenseMetrics.Timer t = ExpenseMetrics.time(ExpenseMetrics.Op.REPORT)) {
+            String scope = category == null ? "All" : category;
+            System.out.println(CYAN + "\n--- " + g + " Trend (" + scope + "): " + from + " to " + to + " ---" + RESET);
+            List<ExpenseRollups.Bucket> buckets = rollups.trend(category, from, to, g);
+            double max = 1.0;
+            long total = 0, rows = 0;
+            for (ExpenseRollups.Bucket b : buckets) {
+                max = Math.max(max, b.sum);
+                total += b.cents;
+                rows += b.count;
+            }
+            t.rows(rows);
+            try (ExpenseReportWriter out = ExpenseReportWriter.console()) {
+                for (ExpenseRollups.Bucket b : buckets) {
+                    out.date(b.start.toEpochDay(), 10).text("   ").integer(b.count, 5).text(" | ")
+                            .text(GREEN).bar(b.sum, max, 30).text(RESET).ch(' ').money(b.cents, 0).newline();
+                }
+                printTotal(out, total);
+            }
+        }
+    }
+
+    /* ------------ Search ------------ */
+
+    /**
+     * Runs {@code q} against a snapshot of the ledger. Rows in memory are matched straight away;
+     * months on disk are paged in and filtered only as the result is iterated.
+     */
+    public ExpenseQuery.Result query(ExpenseQuery q) {
+        try (ExpenseMetrics.Timer t = ExpenseMetrics.time(ExpenseMetrics.Op.SEARCH)) {
+            ExpenseQuery.Result result = run(q);
+            t.rows(result.recentCount());
+            return result;
+        }
+    }
+
+    // results are cached per query; an insert drops only the queries it matches
+    private ExpenseQuery.Result run(ExpenseQuery q) {
+        ExpenseStore snap = published;
+        return cache.computeIfAbsent(q, q, snap.size(), () -> new ExpenseQuery.Result(q, snap, pager, dateIndex, keywordIndex),
+                ExpenseManager::resultBytes);
+    }
+
+    private static long resultBytes(ExpenseQuery.Result r) {
+        return 128 + 4L * r.recentCount(); // the row ids; the snapshot itself is shared
+    }
+
+    public void searchByKeyword(String keyword) {
+        search(ExpenseQuery.all().keyword(keyword));
+    }
+
+    public void searchByCategory(String category) {
+        search(ExpenseQuery.all().category(category));
+    }
+
+    public void searchByDateRange(LocalDate from, LocalDate to) {
+        search(ExpenseQuery.all().between(from, to));
+    }
+
+    /** Prints every match of {@code q}; the timer covers paging the history in. */
+    public void search(ExpenseQuery q) {
+        try (ExpenseMetrics.Timer t = ExpenseMetrics.time(ExpenseMetrics.Op.SEARCH)) {
+            t.rows(printSearchResult(q.toString(), run(q)));
+        }
+    }
+
+    /** Expenses dated within [from, to] in date order, paging in only the overlapping months. */
+    private List<Expense> between(LocalDate from, LocalDate to) {
+        List<Expense> out = new ArrayList<>();
+        try {
+            forEachBetween(from, to, (store, r) -> out.add(store.get(r)));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // the visitor above does no I/O
+        }
+        return out;
+    }
+
+    /** Row callback for the streaming walks below; it may abort a walk by throwing. */
+    private interface RowVisitor {
+        void row(ExpenseStore store, int r) throws IOException;
+    }
+
+    /** Visits the rows dated within [from, to] in date order without collecting them. */
+    private void forEachBetween(LocalDate from, LocalDate to, RowVisitor visitor) throws IOException {
+        ExpenseStore snap = published;
+        IntList recent = dateIndex.range(from, to, snap.size());
+        int[] next = {0};
+        try {
+            forEachHistoryPage(from, to, page -> {
+                // pages and the date index are both date-ordered, so merge them; history goes first on ties
+                for (int r = 0; r < page.size(); r++) {
+                    int day = page.epochDay(r);
+                    if (!within(day, from, to)) continue;
+                    while (next[0] < recent.size() && snap.epochDay(recent.get(next[0])) < day) visit(visitor, snap, recent.get(next[0]++));
+                    visit(visitor, page, r);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        while (next[0] < recent.size()) visitor.row(snap, recent.get(next[0]++));
+    }
+
+    /** Visits every row: the history on disk first, then the rows in memory, as getAllExpenses lists them. */
+    private void forEachRow(RowVisitor visitor) throws IOException {
+        ExpenseStore snap = published;
+        try {
+            forEachHistoryPage(null, null, page -> {
+                for (int r = 0; r < page.size(); r++) visit(visitor, page, r);
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        for (int r = 0; r < snap.size(); r++) visitor.row(snap, r);
+    }
+
+    // page callbacks can't throw IOException, so it is tunnelled out and rethrown by the walks
+    private static void visit(RowVisitor visitor, ExpenseStore store, int r) {
+        try {
+            visitor.row(store, r);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static boolean within(int epochDay, LocalDate from, LocalDate to) {
+        return (from == null || epochDay >= from.toEpochDay()) && (to == null || epochDay <= to.toEpochDay());
+    }
+
+    private void forEachHistoryPage(LocalDate from, LocalDate to, Consumer<ExpenseStore> action) {
+        if (pager != null) pager.forEachPage(from, to, action);
+    }
+
+    // prints rows as the result yields them, so a lazy result never has to be held in full
+    private int printSearchResult(String title, Iterable<Expense> result) {
+        System.out.println(CYAN + "\n--- Search (" + title + ") ---" + RESET);
+        Iterator<Expense> it = result.iterator();
+        if (!it.hasNext()) { System.out.println("No matching expenses."); return 0; }
+        int n = 0;
+        long total = 0;
+        try (ExpenseReportWriter out = ExpenseReportWriter.console()) {
+            out.header();
+            while (it.hasNext()) {
+                Expense e = it.next();
+                out.row(e);
+                total += e.getCents();
+                n++;
+            }
+            printTotal(out, total);
+        }
+        return n;
+    }
+
+    /* ------------ Budgets & Alerts ------------ */
+
+    public void setBudget(String category, double amount) {
+        setBudget(category, amount, ExpenseBudgets.Period.TOTAL);
+    }
+
+    /** A MONTH budget limits each calendar month's spend; a TOTAL one all spend in the category. */
+    public void setBudget(String category, double amount, ExpenseBudgets.Period period) {
+        writeLock.lock();
+        try {
+            budgets.setBudget(category, amount, period);
+            saveBudgets();
+        } finally {
+            writeLock.unlock();
+        }
+        String per = period == ExpenseBudgets.Period.MONTH ? " per month" : "";
+        System.out.println(GREEN + "Budget set for " + category + ": " + amount + per + RESET);
+    }
+
+    public void viewBudgets() {
+        try (ExpenseMetrics.Timer t = ExpenseMetrics.time(ExpenseMetrics.Op.REPORT)) {
+            t.rows(categories.length);
+            try (ExpenseReportWriter out = ExpenseReportWriter.console()) {
+                out.text(CYAN).text("\n--- Budgets ---").text(RESET).newline();
+                for (String c : categories) {
+                    ExpenseBudgets.Budget b = budgets.budget(c);
+                    out.left(c, 15).text(" : ").amount(b == null ? 0.0 : b.limit, 2);
+                    if (b != null && b.period == ExpenseBudgets.Period.MONTH) out.text(" per month");
+                    out.newline();
+                }
+                out.text(CYAN).text("\n--- Current Spend vs Budget ---").text(RESET).newline();
+                for (String c : categories) {
+                    // spend over the budget's own period, from the alert engine's counters
+                    double spent = budgets.spent(c);
+                    ExpenseBudgets.Budget b = budgets.budget(c);
+                    if (b == null) {
+                        out.left(c, 15).text(" : Spent ").amount(spent, 2).text(" (no budget set)").newline();
+                    } else {
+                        ExpenseBudgets.Status st = budgets.status(c);
+                        String color = st == ExpenseBudgets.Status.EXCEEDED ? RED : (st == ExpenseBudgets.Status.NEAR ? YELLOW : GREEN);
+                        out.text(color).left(c, 15).text(" : Spent ").amount(spent, 2).text(" / Budget ").amount(b.limit, 2).newline().text(RESET);
+                    }
+                }
+            }
+        }
+    }
+
+    /* ------------ Export ------------ */
+
+    public void exportAllToCsv(String outFile) {
+        exportAllToCsv(outFile, Progress.NONE);
+    }
+
+    public boolean exportAllToCsv(String outFile, Progress progress) {
+        long total = published.size() + (pager == null ? 0 : pager.size());
+        return exportToCsv(outFile, total, this::forEachRow, progress);
+    }
+
+    public void exportMonthlyToCsv(int month, int year, String outFile) {
+        exportMonthlyToCsv(month, year, outFile, Progress.NONE);
+    }
+
+    public boolean exportMonthlyToCsv(int month, int year, String outFile, Progress progress) {
+        if (month < 1 || month > 12) return exportToCsv(outFile, 0, visitor -> {}, progress);
+        YearMonth ym = YearMonth.of(year, month);
+        return exportToCsv(outFile, aggregates.monthCount(month, year),
+                visitor -> forEachBetween(ym.atDay(1), ym.atEndOfMonth(), visitor), progress);
+    }
+
+    private interface RowSource {
+        void forEach(RowVisitor visitor) throws IOException;
+    }
+
+    // Streams rows straight into the file (gzipped for a .gz name); returns false when the
+    // export failed or was cancelled (the partial file is removed)
+    private boolean exportToCsv(String outFile, long total, RowSource source, Progress progress) {
+        try (ExpenseMetrics.Timer t = ExpenseMetrics.time(ExpenseMetrics.Op.EXPORT)) {
+            long written;
+            try (ExpenseCsvWriter out = new ExpenseCsvWriter(Paths.get(outFile))) {
+                source.forEach((store, r) -> {
+                    if ((out.rows() & 1023) == 0 && !progress.update(out.rows(), total)) throw new CancellationException();
+                    out.write(store, r);
+                });
+                written = out.rows();
+            } catch (CancellationException ex) {
+                new File(outFile).delete();
+                System.out.println(YELLOW + "Export to " + outFile + " cancelled." + RESET);
+                return false;
+            } catch (IOException | UncheckedIOException | InvalidPathException ex) {
+                t.failed();
+                System.out.println(RED + "Export failed: " + ex.getMessage() + RESET);
+                return false;
+            }
+            t.rows(written);
+            ExpenseMetrics.global().add(ExpenseMetrics.Counter.BYTES_WRITTEN, new File(outFile).length());
+            System.out.println(GREEN + "Exported " + written + " rows to " + outFile + RESET);
+            return true;
+        }
+    }
+
+    /* ------------ Persistence ------------ */
+
+    // Appends only the new record to the journal; the snapshot is rewritten in the background.
+    // Callers hold writeLock.
+    private void saveExpense(Expense e) {
+        try (ExpenseMetrics.Timer t = ExpenseMetrics.time(ExpenseMetrics.Op.SAVE)) {
+            try {
+                journal.append(e);
+                t.rows(1);
+                if (journal.needsCompaction()) journal.compact(expenses.snapshot());
+            } catch (IOException ex) {
+                t.failed();
+                System.out.println(RED + "Error saving expenses." + RESET);
+            }
+        }
+    }
+
+    // Indexes and persists rows [first, size) as one unit. Callers hold writeLock.
+    private void commitBatch(int first) {
+        expenses.publish(); // the batch was appended unpublished; readers still go by the manager's own snapshot
+        int end = expenses.size();
+        if (end == first) return;
+        for (int r = first; r < end; r++) index(r);
+        checkBudgets(first, end);
+        publish();
+        try (ExpenseMetrics.Timer t = ExpenseMetrics.time(ExpenseMetrics.Op.SAVE).rows(end - first)) {
+            try {
+                journal.appendAll(expenses, first, end);
+                if (journal.needsCompaction()) journal.compact(expenses.snapshot());
+            } catch (IOException ex) {
+                t.failed();
+                System.out.println(RED + "Error saving expenses." + RESET);
+            }
+        }
+    }
+
+    // one budget evaluation per category and month that rows [first, end) added to, after all are counted
+    private void checkBudgets(int first, int end) {
+        Map<String, Set<YearMonth>> touched = new HashMap<>();
+        int lastDay = Integer.MIN_VALUE;
+        YearMonth month = null;
+        for (int r = first; r < end; r++) {
+            if (expenses.epochDay(r) != lastDay) {
+                lastDay = expenses.epochDay(r);
+                month = YearMonth.from(expenses.date(r));
+            }
+            touched.computeIfAbsent(expenses.category(r), k -> new HashSet<>()).add(month);
+        }
+        budgets.check(touched);
+    }
+
+    private void loadExpenses() {
+        try (ExpenseMetrics.Timer t = ExpenseMetrics.time(ExpenseMetrics.Op.LOAD)) {
+            try {
+                int loadFrom = ExpenseConfig.lazyLoading() ? (int) ExpenseConfig.recentWindowStart().toEpochDay() : Integer.MIN_VALUE;
+                loadStats = journal.replay(expenses, loadFrom);
+                t.rows(loadStats.rows);
+                ExpenseMetrics metrics = ExpenseMetrics.global();
+                metrics.add(ExpenseMetrics.Counter.ROWS_LOADED, loadStats.rows);
+                metrics.add(ExpenseMetrics.Counter.ROWS_SKIPPED, loadStats.errors);
+                metrics.add(ExpenseMetrics.Counter.BYTES_READ, loadStats.bytes);
+                for (int r = 0; r < expenses.size(); r++) index(r);
+                publish();
+                List<ExpenseBinaryFile.Slice> history = journal.history();
+                if (!history.isEmpty()) {
+                    // totals cover the rows left on disk too; only their numeric columns (or a
+                    // partition's footer) are read
+                    for (ExpenseBinaryFile.Slice slice : history) addHistoryTotals(slice);
+                    pager = new ExpensePager(history, ExpenseConfig.pageCacheBytes());
+                }
+                if (loadStats.errors > 0) {
+                    System.out.println(YELLOW + "Skipped " + loadStats.errors + " invalid line(s) while loading expenses:" + RESET);
+                    for (ExpenseCsvReader.LineError err : loadStats.firstErrors) System.out.println(YELLOW + "  " + err + RESET);
+                }
+            } catch (Exception ex) {
+                t.failed();
+                System.out.println(RED + "Error loading expenses." + RESET);
+            }
+        }
+    }
+
+    private void addHistoryTotals(ExpenseBinaryFile.Slice slice) {
+        ExpenseBinaryFile f = slice.file;
+        List<String> dict = f.categoryDictionary();
+        if (slice.rows == null && f.hasTotals() && f.size() > 0) {
+            // a partition is one month, so its footer already holds that month's category totals
+            YearMonth month = YearMonth.from(LocalDate.ofEpochDay(f.epochDay(0)));
+            for (int id = 0; id < dict.size(); id++) {
+                aggregates.addAll(dict.get(id), month, f.categoryCents(id), f.categoryCount(id));
+                budgets.addAll(dict.get(id), month, f.categoryCents(id));
+            }
+            for (int r = 0; r < f.size(); r++) rollups.add(f.category(r), f.cents(r), f.epochDay(r));
+            return;
+        }
+        // no footer to use: read the numeric columns a chunk at a time and sum each run of one
+        // month per category with the keyed kernel, then fold in one cell per (month, category)
+        int chunk = Math.min(slice.size(), HISTORY_CHUNK);
+        long[] cents = new long[chunk];
+        short[] ids = new short[chunk];
+        int[] days = new int[chunk];
+        Map<Integer, long[][]> months = new HashMap<>(); // month key -> {cents, counts} by category id
+        for (int from = 0; from < slice.size(); from += chunk) {
+            int n = Math.min(chunk, slice.size() - from);
+            slice.numericColumns(from, from + n, cents, ids, days);
+            for (int i = 0; i < n; ) {
+                int key = ExpensePartitions.key(days[i]);
+                int runFrom = i, lastDay = days[i];
+                for (i++; i < n && (days[i] == lastDay || ExpensePartitions.key(days[i]) == key); i++) lastDay = days[i];
+                long[][] cell = months.computeIfAbsent(key, k -> new long[2][dict.size()]);
+                ExpenseMoney.sumByKey(cents, ids, runFrom, i, cell[0], cell[1]);
+            }
+            for (int i = 0; i < n; i++) rollups.add(dict.get(ids[i]), cents[i], days[i]);
+        }
+        for (Map.Entry<Integer, long[][]> en : months.entrySet()) {
+            YearMonth month = ExpensePartitions.month(en.getKey());
+            long[][] cell = en.getValue();
+            for (int id = 0; id < dict.size(); id++) {
+                if (cell[1][id] == 0) continue;
+                aggregates.addAll(dict.get(id), month, cell[0][id], cell[1][id]);
+                budgets.addAll(dict.get(id), month, cell[0][id]);
+            }
+        }
+    }
+
+    /** Rows, skipped lines and MB/s of the startup load. */
+    ExpenseCsvReader.Stats getLoadStats() {
+        return loadStats;
+    }
+
+    /** Paging stats in lazy mode, null otherwise. */
+    String getPagerStats() {
+        return pager == null ? null : pager.toString();
+    }
+
+    /** Flushes the journal and waits for any running compaction. */
+    public void close() {
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook); // so a closed manager can be collected
+        } catch (IllegalStateException ex) {
+            // already shutting down, this may be the hook itself
+        }
+        try {
+            journal.close();
+        } catch (IOException ex) {
+            ExpenseMetrics.global().error(ExpenseMetrics.Op.SAVE);
+            System.out.println(RED + "Error saving expenses." + RESET);
+        }
+        budgets.close();
+        ExpenseMetrics.global().dumpQuietly();
+    }
+
+    private void saveBudgets() {
+        try (PrintWriter pw = new PrintWriter(new FileWriter(budgetsFile))) {
+            pw.println("Category,Budget,Period");
+            Map<String, ExpenseBudgets.Budget> set = budgets.budgets();
+            for (String c : categories) {
+                ExpenseBudgets.Budget b = budgets.budget(c);
+                pw.println(c + "," + (b == null ? 0.0 : b.limit) + "," + (b == null ? ExpenseBudgets.Period.TOTAL : b.period));
+                if (b != null) set.remove(b.category);
+            }
+            for (ExpenseBudgets.Budget b : set.values()) pw.println(b.category + "," + b.limit + "," + b.period);
+        } catch (IOException ex) {
+            System.out.println(RED + "Error saving budgets." + RESET);
+        }
+    }
+
+    private void loadBudgets() {
+        File f = new File(budgetsFile);
+        if (!f.exists()) return;
+        try (Scanner sc = new Scanner(f)) {
+            if (sc.hasNextLine()) sc.nextLine(); // skip header
+            while (sc.hasNextLine()) {
+                String[] p = sc.nextLine().split(",", -1);
+                if (p.length >= 2) {
+                    String cat = p[0];
+                    double amt = Double.parseDouble(p[1]);
+                    // files written before periods existed have two columns
+                    ExpenseBudgets.Period period = p.length >= 3 && !p[2].isEmpty()
+                            ? ExpenseBudgets.Period.valueOf(p[2].trim().toUpperCase()) : ExpenseBudgets.Period.TOTAL;
+                    budgets.setBudget(cat, amt, period);
+                }
+            }
+        } catch (Exception ex) {
+            System.out.println(YELLOW + "Budgets file invalid, using defaults." + RESET);
+        }
+    }
+
+    /* ------------ Helpers ------------ */
+
+    // makes the rows indexed so far visible to readers. Callers hold writeLock (or are loading).
+    private void publish() {
+        published = expenses.snapshot();
+    }
+
+    private void index(int row) {
+        long cents = expenses.cents(row);
+        aggregates.add(expenses.category(row), cents, expenses.date(row));
+        rollups.add(expenses.category(row), cents, expenses.epochDay(row));
+        budgets.add(expenses.category(row), cents, expenses.epochDay(row));
+        dateIndex.add(row, expenses.epochDay(row));
+        keywordIndex.add(row, expenses);
+        cache.invalidate(expenses, row);
+    }
+
+    private void printTable(List<Expense> list) {
+        try (ExpenseReportWriter out = ExpenseReportWriter.console()) {
+            out.header();
+            long total = 0;
+            for (Expense e : list) {
+                out.row(e);
+                total += e.getCents();
+            }
+            printTotal(out, total);
+        }
+    }
+
+    private void printTotal(ExpenseReportWriter out, long cents) {
+        out.text(GREEN).text("Total: ").money(cents, 0).newline().text(RESET);
+    }
+}
@@ -1,304 +1,642 @@
-import javax.swing.*;
-import javax.swing.table.AbstractTableModel;
-import java.awt.*;
-import java.awt.event.ActionEvent;
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
-
-public class ExpenseManagerGUI extends JFrame {
-
-    private final ExpenseManager manager = new ExpenseManager();
-    private final ExpenseTableModel tableModel = new ExpenseTableModel();
-    private final JTable table = new JTable(tableModel);
-    private final JTextArea reportArea = new JTextArea(12, 60);
-
-    public ExpenseManagerGUI() {
-        super("Expense Manager (Swing)");
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        setSize(900, 650);
-        setLocationRelativeTo(null);
-
-        // Style
-        reportArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
-        table.setFillsViewportHeight(true);
-
-        // Tabs
-        JTabbedPane tabs = new JTabbedPane();
-        tabs.addTab("Add Expense", buildAddPanel());
-        tabs.addTab("All Expenses", buildListPanel());
-        tabs.addTab("Budgets", buildBudgetPanel());
-        tabs.addTab("Reports & Export", buildReportPanel());
-
-        add(tabs);
-        refreshTable();
-    }
-
-    /* ---------------- Panels ---------------- */
-
-    private JPanel buildAddPanel() {
-        JPanel p = new JPanel(new BorderLayout());
-        JPanel form = new JPanel(new GridBagLayout());
-        GridBagConstraints gc = new GridBagConstraints();
-        gc.insets = new Insets(6,6,6,6);
-        gc.fill = GridBagConstraints.HORIZONTAL;
-
-        JTextField name = new JTextField(20);
-        JComboBox<String> category = new JComboBox<>(manager.getCategories());
-        JTextField amount = new JTextField(10);
-        JTextField date = new JTextField(10);
-        date.setToolTipText("YYYY-MM-DD (blank = today)");
-        JTextArea notes = new JTextArea(4, 20);
-        notes.setLineWrap(true);
-        notes.setWrapStyleWord(true);
-
-        int r=0;
-        gc.gridy=r++; gc.gridx=0; form.add(new JLabel("Name:"), gc);     gc.gridx=1; form.add(name, gc);
-        gc.gridy=r++; gc.gridx=0; form.add(new JLabel("Category:"), gc); gc.gridx=1; form.add(category, gc);
-        gc.gridy=r++; gc.gridx=0; form.add(new JLabel("Amount:"), gc);   gc.gridx=1; form.add(amount, gc);
-        gc.gridy=r++; gc.gridx=0; form.add(new JLabel("Date:"), gc);     gc.gridx=1; form.add(date, gc);
-        gc.gridy=r++; gc.gridx=0; form.add(new JLabel("Notes:"), gc);    gc.gridx=1; form.add(new JScrollPane(notes), gc);
-
-        JButton addBtn = new JButton("Add Expense");
-        addBtn.addActionListener((ActionEvent e) -> {
-            try {
-                String n = name.getText().trim();
-                String c = (String) category.getSelectedItem();
-                double a = Double.parseDouble(amount.getText().trim());
-                LocalDate d;
-                String di = date.getText().trim();
-                if (di.isEmpty()) d = LocalDate.now();
-                else d = LocalDate.parse(di);
-                String note = notes.getText().trim();
-
-                manager.addExpense(n, c, a, d, note);
-                JOptionPane.showMessageDialog(this, "Expense added!");
-                name.setText(""); amount.setText(""); date.setText(""); notes.setText("");
-                refreshTable();
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this, "Invalid input: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-            }
-        });
-
-        JPanel bottom = new JPanel(new FlowLayout(FlowLayout.RIGHT));
-        bottom.add(addBtn);
-
-        p.add(form, BorderLayout.CENTER);
-        p.add(bottom, BorderLayout.SOUTH);
-        return p;
-    }
-
-    private JPanel buildListPanel() {
-        JPanel p = new JPanel(new BorderLayout());
-        p.add(new JScrollPane(table), BorderLayout.CENTER);
-        JButton refresh = new JButton("Refresh");
-        refresh.addActionListener(e -> refreshTable());
-        JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT));
-        top.add(refresh);
-        p.add(top, BorderLayout.NORTH);
-        return p;
-    }
-
-    private JPanel buildBudgetPanel() {
-        JPanel p = new JPanel(new BorderLayout(10,10));
-
-        JTextArea budgetsView = new JTextArea(15, 50);
-        budgetsView.setEditable(false);
-        budgetsView.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
-
-        JPanel setPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
-        JComboBox<String> cat = new JComboBox<>(manager.getCategories());
-        JTextField amt = new JTextField(8);
-        JButton setBtn = new JButton("Set Budget");
-
-        setBtn.addActionListener(e -> {
-            try {
-                String c = (String)cat.getSelectedItem();
-                double a = Double.parseDouble(amt.getText().trim());
-                manager.setBudget(c, a);
-                JOptionPane.showMessageDialog(this, "Budget set for " + c);
-                amt.setText("");
-                updateBudgetsView(budgetsView);
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this, "Invalid amount!", "Error", JOptionPane.ERROR_MESSAGE);
-            }
-        });
-
-        setPanel.add(new JLabel("Category:")); setPanel.add(cat);
-        setPanel.add(new JLabel("Budget:")); setPanel.add(amt);
-        setPanel.add(setBtn);
-
-        p.add(setPanel, BorderLayout.NORTH);
-        p.add(new JScrollPane(budgetsView), BorderLayout.CENTER);
-
-        updateBudgetsView(budgetsView);
-        return p;
-    }
-
-    private void updateBudgetsView(JTextArea ta) {
-        Map<String, Double> budgets = manager.getBudgetsCopy();
-        // compute spent
-        Map<String, Double> spent = new HashMap<>();
-        for (Expense e : manager.getAllExpenses()) {
-            spent.put(e.getCategory(), spent.getOrDefault(e.getCategory(), 0.0) + e.getAmount());
-        }
-
-        StringBuilder sb = new StringBuilder();
-        sb.append(String.format("%-15s %-12s %-12s %-10s%n", "Category", "Budget", "Spent", "Status"));
-        sb.append("--------------------------------------------------------\n");
-        for (String c : manager.getCategories()) {
-            double b = budgets.getOrDefault(c, 0.0);
-            double s = spent.getOrDefault(c, 0.0);
-            String status;
-            if (b <= 0) status = "No Budget";
-            else if (s > b) status = "RED (Exceeded)";
-            else if (s > 0.8 * b) status = "YELLOW (80%+)";
-            else status = "GREEN (Safe)";
-            sb.append(String.format("%-15s %-12.2f %-12.2f %-10s%n", c, b, s, status));
-        }
-        ta.setText(sb.toString());
-    }
-
-    private JPanel buildReportPanel() {
-        JPanel p = new JPanel(new BorderLayout(8,8));
-
-        // Top controls
-        JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT));
-        JTextField month = new JTextField(2);
-        JTextField year = new JTextField(4);
-        JButton showMonthly = new JButton("Show Monthly Report");
-        JButton exportAll = new JButton("Export ALL to CSV");
-        JButton exportMonthly = new JButton("Export Monthly to CSV");
-
-        controls.add(new JLabel("Month:"));
-        controls.add(month);
-        controls.add(new JLabel("Year:"));
-        controls.add(year);
-        controls.add(showMonthly);
-        controls.add(exportMonthly);
-        controls.add(exportAll);
-
-        showMonthly.addActionListener(e -> {
-            try {
-                int m = Integer.parseInt(month.getText().trim());
-                int y = Integer.parseInt(year.getText().trim());
-                showMonthlyReport(m, y);
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this, "Enter valid month & year!", "Error", JOptionPane.ERROR_MESSAGE);
-            }
-        });
-
-        exportAll.addActionListener(e -> {
-            String name = promptFileName("export_all.csv");
-            if (name != null) manager.exportAllToCsv(name);
-        });
-
-        exportMonthly.addActionListener(e -> {
-            try {
-                int m = Integer.parseInt(month.getText().trim());
-                int y = Integer.parseInt(year.getText().trim());
-                String def = "export_" + y + "_" + String.format("%02d", m) + ".csv";
-                String name = promptFileName(def);
-                if (name != null) manager.exportMonthlyToCsv(m, y, name);
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this, "Enter valid month & year!", "Error", JOptionPane.ERROR_MESSAGE);
-            }
-        });
-
-        p.add(controls, BorderLayout.NORTH);
-        p.add(new JScrollPane(reportArea), BorderLayout.CENTER);
-        return p;
-    }
-
-    private String promptFileName(String def) {
-        String name = JOptionPane.showInputDialog(this, "Output filename:", def);
-        if (name == null) return null;
-        name = name.trim();
-        if (name.isEmpty()) name = def;
-        return name;
-    }
-
-    private void showMonthlyReport(int month, int year) {
-        List<Expense> data = manager.getAllExpenses();
-        List<Expense> list = new ArrayList<>();
-        for (Expense e : data) {
-            if (e.getDate().getMonthValue() == month && e.getDate().getYear() == year) list.add(e);
-        }
-        String[] cats = manager.getCategories();
-        Map<String, Double> totals = new HashMap<>();
-        double total = 0.0;
-        for (String c : cats) totals.put(c, 0.0);
-        for (Expense e : list) {
-            totals.put(e.getCategory(), totals.getOrDefault(e.getCategory(), 0.0) + e.getAmount());
-            total += e.getAmount();
-        }
-        double max = 1.0;
-        for (double v : totals.values()) if (v > max) max = v;
-
-        StringBuilder sb = new StringBuilder();
-        sb.append(String.format("---- Monthly Report: %02d/%d ----%n", month, year));
-        sb.append(String.format("%-15s %-15s %-10s %-12s %-20s%n", "Name", "Category", "Amount", "Date", "Notes"));
-        sb.append("----------------------------------------------------------------------------\n");
-        DateTimeFormatter df = DateTimeFormatter.ISO_LOCAL_DATE;
-        for (Expense e : list) {
-            sb.append(String.format("%-15s %-15s %10.2f %12s %-20s%n",
-                    e.getName(), e.getCategory(), e.getAmount(), df.format(e.getDate()), e.getNotes()));
-        }
-        sb.append(String.format("%nCategory Breakdown:%n"));
-        for (String c : cats) {
-            double amt = totals.get(c);
-            int bars = (int)((amt / max) * 30);
-            sb.append(String.format("%-15s | %s %.2f%n", c, "#".repeat(Math.max(0, bars)), amt));
-        }
-        sb.append(String.format("%nTOTAL: %.2f%n", total));
-        reportArea.setText(sb.toString());
-    }
-
-    /* ---------------- Helpers ---------------- */
-    private void refreshTable() {
-        tableModel.setData(new ArrayList<>(manager.getAllExpenses()));
-    }
-
-    /* ---------------- Table Model ---------------- */
-    static class ExpenseTableModel extends AbstractTableModel {
-        private final String[] cols = {"Name","Category","Amount","Date","Notes"};
-        private List<Expense> data = new ArrayList<>();
-
-        public void setData(List<Expense> d) {
-            this.data = d;
-            fireTableDataChanged();
-        }
-
-        @Override public int getRowCount() { return data.size(); }
-        @Override public int getColumnCount() { return cols.length; }
-        @Override public String getColumnName(int c) { return cols[c]; }
-        @Override public Object getValueAt(int r, int c) {
-            Expense e = data.get(r);
-            switch (c) {
-                case 0: return e.getName();
-                case 1: return e.getCategory();
-                case 2: return String.format("%.2f", e.getAmount());
-                case 3: return e.getDate().toString();
-                case 4: return e.getNotes();
-            }
-            return "";
-        }
-    }
-
-    /* ---------------- Main ---------------- */
-    public static void main(String[] args) {
-        try {
-            for (UIManager.LookAndFeelInfo info : UIManager.getInstalledLookAndFeels()) {
-                if ("Nimbus".equals(info.getName())) {
-                    UIManager.setLookAndFeel(info.getClassName());
-                    break;
-                }
-            }
-        } catch (Exception ignored) {}
-
-        SwingUtilities.invokeLater(() -> new ExpenseManagerGUI().setVisible(true));
-    }
-}
\ No newline at end of file
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+public class ExpenseManagerGUI extends JFrame {
+
+    private final ExpenseManager manager;
+    private final ExpenseTableModel tableModel = new ExpenseTableModel();
+    private final JTable table = new JTable(tableModel);
+    private final JTextArea reportArea = new JTextArea(12, 60);
+
+    // Background work: one worker thread so manager calls never overlap and never run on the EDT
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "expense-worker");
+        t.setDaemon(true);
+        return t;
+    });
+    // The table's history months are decoded here, so scrolling never queues behind an import
+    private final ExecutorService pageLoader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "expense-pager");
+        t.setDaemon(true);
+        return t;
+    });
+    private final JLabel status = new JLabel("Ready");
+    private final JProgressBar progressBar = new JProgressBar(0, 100);
+    private final JButton cancelBtn = new JButton("Cancel");
+    private SwingWorker<?, ?> running;    // the task on the worker now, not the last one queued (EDT)
+    private AtomicBoolean cancelRequest; // the running task's, set by Cancel; only cancellable tasks get one
+    private JTextArea budgetsView;
+
+    public ExpenseManagerGUI(ExpenseManager manager) {
+        super("Expense Manager (Swing)");
+        this.manager = manager;
+        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setSize(900, 650);
+        setLocationRelativeTo(null);
+
+        // Style
+        reportArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        table.setFillsViewportHeight(true);
+
+        JPanel statusBar = buildStatusBar();
+
+        // Tabs
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab("Add Expense", buildAddPanel());
+        tabs.addTab("All Expenses", buildListPanel());
+        tabs.addTab("Budgets", buildBudgetPanel());
+        tabs.addTab("Reports & Export", buildReportPanel());
+
+        add(tabs);
+        add(statusBar, BorderLayout.SOUTH);
+        tableModel.setHistory(manager.history(), pageLoader);
+        refreshTable();
+
+        // alerts arrive on the alert thread; show them in the status bar and refresh the budgets tab
+        manager.addBudgetListener(alert -> SwingUtilities.invokeLater(() -> {
+            String color = alert.exceeded() ? "#c00000" : "#b36b00";
+            status.setText("<html><font color='" + color + "'>&#9888; " + alert.message() + "</font></html>");
+            if (budgetsView != null) updateBudgetsView(budgetsView);
+        }));
+    }
+
+    /* ---------------- Panels ---------------- */
+
+    private JPanel buildAddPanel() {
+        JPanel p = new JPanel(new BorderLayout());
+        JPanel form = new JPanel(new GridBagLayout());
+        GridBagConstraints gc = new GridBagConstraints();
+        gc.insets = new Insets(6,6,6,6);
+        gc.fill = GridBagConstraints.HORIZONTAL;
+
+        JTextField name = new JTextField(20);
+        JComboBox<String> category = new JComboBox<>(manager.getCategories());
+        JTextField amount = new JTextField(10);
+        JTextField date = new JTextField(10);
+        date.setToolTipText("YYYY-MM-DD (blank = today)");
+        JTextArea notes = new JTextArea(4, 20);
+        notes.setLineWrap(true);
+        notes.setWrapStyleWord(true);
+
+        int r=0;
+        gc.gridy=r++; gc.gridx=0; form.add(new JLabel("Name:"), gc);     gc.gridx=1; form.add(name, gc);
+        gc.gridy=r++; gc.gridx=0; form.add(new JLabel("Category:"), gc); gc.gridx=1; form.add(category, gc);
+        gc.gridy=r++; gc.gridx=0; form.add(new JLabel("Amount:"), gc);   gc.gridx=1; form.add(amount, gc);
+        gc.gridy=r++; gc.gridx=0; form.add(new JLabel("Date:"), gc);     gc.gridx=1; form.add(date, gc);
+        gc.gridy=r++; gc.gridx=0; form.add(new JLabel("Notes:"), gc);    gc.gridx=1; form.add(new JScrollPane(notes), gc);
+
+        JButton addBtn = new JButton("Add Expense");
+        addBtn.addActionListener((ActionEvent e) -> {
+            try {
+                String n = name.getText().trim();
+                String c = (String) category.getSelectedItem();
+                double a = Double.parseDouble(amount.getText().trim());
+                LocalDate d;
+                String di = date.getText().trim();
+                if (di.isEmpty()) d = LocalDate.now();
+                else d = LocalDate.parse(di);
+                String note = notes.getText().trim().replaceAll("\\s*\\R\\s*", " "); // stored as one line
+
+                runInBackground("Saving expense", progress -> {
+                    manager.addExpense(n, c, a, d, note);
+                    return null;
+                }, done -> {
+                    JOptionPane.showMessageDialog(this, "Expense added!");
+                    name.setText(""); amount.setText(""); date.setText(""); notes.setText("");
+                    refreshTable();
+                });
+            } catch (Exception ex) {
+                JOptionPane.showMessageDialog(this, "Invalid input: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        JPanel bottom = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        bottom.add(addBtn);
+
+        p.add(form, BorderLayout.CENTER);
+        p.add(bottom, BorderLayout.SOUTH);
+        return p;
+    }
+
+    private JPanel buildListPanel() {
+        JPanel p = new JPanel(new BorderLayout());
+        JScrollPane scroll = new JScrollPane(table);
+        scroll.getViewport().addChangeListener(e -> showVisibleRows());
+        tableModel.addTableModelListener(e -> SwingUtilities.invokeLater(this::showVisibleRows));
+        p.add(scroll, BorderLayout.CENTER);
+        JButton refresh = new JButton("Refresh");
+        refresh.addActionListener(e -> refreshTable());
+        JButton importCsv = new JButton("Import CSV");
+        importCsv.addActionListener(e -> {
+            String name = promptFileName("export_all.csv");
+            if (name == null) return;
+            runInBackground("Importing " + name, true, progress -> manager.importCsv(name, progress), rows -> {
+                JOptionPane.showMessageDialog(this, "Imported " + rows + " rows.");
+                refreshTable();
+            });
+        });
+
+        // Sorting and filtering go through the manager's indexes, not JTable's string sorter
+        String[] cats = manager.getCategories();
+        String[] choices = new String[cats.length + 1];
+        choices[0] = "All";
+        System.arraycopy(cats, 0, choices, 1, cats.length);
+        JComboBox<String> catFilter = new JComboBox<>(choices);
+        JTextField search = new JTextField(12);
+        JTextField fromField = new JTextField(8);
+        JTextField toField = new JTextField(8);
+        JTextField minField = new JTextField(6);
+        JTextField maxField = new JTextField(6);
+        JButton apply = new JButton("Filter");
+        apply.addActionListener(e -> {
+            String c = (String) catFilter.getSelectedItem();
+            try {
+                // blank bounds leave that side open
+                String from = fromField.getText().trim(), to = toField.getText().trim();
+                String min = minField.getText().trim(), max = maxField.getText().trim();
+                tableModel.setFilter(ExpenseQuery.all()
+                        .category("All".equals(c) ? null : c)
+                        .keyword(search.getText())
+                        .between(from.isEmpty() ? null : LocalDate.parse(from), to.isEmpty() ? null : LocalDate.parse(to))
+                        .amount(min.isEmpty() ? Double.NEGATIVE_INFINITY : Double.parseDouble(min),
+                                max.isEmpty() ? Double.POSITIVE_INFINITY : Double.parseDouble(max)));
+            } catch (DateTimeParseException | NumberFormatException ex) {
+                JOptionPane.showMessageDialog(this, "Enter dates as YYYY-MM-DD and valid amounts, or leave them blank!", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            refreshTable();
+        });
+        for (JTextField f : new JTextField[]{search, fromField, toField, minField, maxField}) {
+            f.addActionListener(apply.getActionListeners()[0]);
+        }
+        table.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int col = table.columnAtPoint(e.getPoint());
+                if (col < 0) return;
+                tableModel.toggleSort(table.convertColumnIndexToModel(col));
+                refreshTable();
+            }
+        });
+
+        JPanel actions = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        actions.add(refresh);
+        actions.add(importCsv);
+        actions.add(new JLabel("Category:"));
+        actions.add(catFilter);
+        actions.add(new JLabel("Search:"));
+        actions.add(search);
+        JPanel ranges = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        ranges.add(new JLabel("From (YYYY-MM-DD):"));
+        ranges.add(fromField);
+        ranges.add(new JLabel("To:"));
+        ranges.add(toField);
+        ranges.add(new JLabel("Amount:"));
+        ranges.add(minField);
+        ranges.add(new JLabel("-"));
+        ranges.add(maxField);
+        ranges.add(apply);
+        JPanel top = new JPanel(new GridLayout(2, 1));
+        top.add(actions);
+        top.add(ranges);
+        p.add(top, BorderLayout.NORTH);
+        return p;
+    }
+
+    private JPanel buildBudgetPanel() {
+        JPanel p = new JPanel(new BorderLayout(10,10));
+
+        budgetsView = new JTextArea(15, 50);
+        budgetsView.setEditable(false);
+        budgetsView.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+
+        JPanel setPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JComboBox<String> cat = new JComboBox<>(manager.getCategories());
+        JTextField amt = new JTextField(8);
+        JComboBox<String> period = new JComboBox<>(new String[]{"Total", "Per month"});
+        JButton setBtn = new JButton("Set Budget");
+
+        setBtn.addActionListener(e -> {
+            try {
+                String c = (String)cat.getSelectedItem();
+                double a = Double.parseDouble(amt.getText().trim());
+                ExpenseBudgets.Period per = period.getSelectedIndex() == 1 ? ExpenseBudgets.Period.MONTH : ExpenseBudgets.Period.TOTAL;
+                runInBackground("Saving budget", progress -> {
+                    manager.setBudget(c, a, per);
+                    return null;
+                }, done -> {
+                    JOptionPane.showMessageDialog(this, "Budget set for " + c);
+                    amt.setText("");
+                    updateBudgetsView(budgetsView);
+                });
+            } catch (Exception ex) {
+                JOptionPane.showMessageDialog(this, "Invalid amount!", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        setPanel.add(new JLabel("Category:")); setPanel.add(cat);
+        setPanel.add(new JLabel("Budget:")); setPanel.add(amt);
+        setPanel.add(period);
+        setPanel.add(setBtn);
+
+        p.add(setPanel, BorderLayout.NORTH);
+        p.add(new JScrollPane(budgetsView), BorderLayout.CENTER);
+
+        updateBudgetsView(budgetsView);
+        return p;
+    }
+
+    // spend comes from the budget engine's running counters, so this is cheap enough for the EDT
+    private void updateBudgetsView(JTextArea ta) {
+        ta.setText(budgetsText());
+    }
+
+    private String budgetsText() {
+        ExpenseBudgets budgets = manager.budgets();
+
+        StringBuilder sb = new StringBuilder();
+        try (ExpenseReportWriter out = ExpenseReportWriter.text(sb)) {
+            out.left("Category", 15).ch(' ').left("Budget", 12).ch(' ').left("Period", 10).ch(' ')
+                    .left("Spent", 12).ch(' ').left("Status", 10).newline();
+            out.text("-------------------------------------------------------------------").newline();
+            for (String c : manager.getCategories()) {
+                ExpenseBudgets.Budget b = budgets.budget(c);
+                String status;
+                switch (budgets.status(c)) {
+                    case NO_BUDGET: status = "No Budget"; break;
+                    case EXCEEDED: status = "RED (Exceeded)"; break;
+                    case NEAR: status = "YELLOW (Nearing)"; break;
+                    default: status = "GREEN (Safe)";
+                }
+                String per = b == null ? "-" : (b.period == ExpenseBudgets.Period.MONTH ? "Month" : "Total");
+                out.left(c, 15).ch(' ').amount(b == null ? 0.0 : b.limit, 2, -12).ch(' ').left(per, 10).ch(' ')
+                        .amount(budgets.spent(c), 2, -12).ch(' ').left(status, 10).newline();
+            }
+        }
+        return sb.toString();
+    }
+
+    private JPanel buildReportPanel() {
+        JPanel p = new JPanel(new BorderLayout(8,8));
+
+        // Top controls
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JTextField month = new JTextField(2);
+        JTextField year = new JTextField(4);
+        JButton showMonthly = new JButton("Show Monthly Report");
+        JButton exportAll = new JButton("Export ALL to CSV");
+        JButton exportMonthly = new JButton("Export Monthly to CSV");
+
+        controls.add(new JLabel("Month:"));
+        controls.add(month);
+        controls.add(new JLabel("Year:"));
+        controls.add(year);
+        controls.add(showMonthly);
+        controls.add(exportMonthly);
+        controls.add(exportAll);
+        JButton saveReport = new JButton("Save Report");
+        controls.add(saveReport);
+
+        showMonthly.addActionListener(e -> {
+            try {
+                int m = Integer.parseInt(month.getText().trim());
+                int y = Integer.parseInt(year.getText().trim());
+                YearMonth ym = YearMonth.of(y, m);
+                ExpenseQuery scope = ExpenseQuery.all().between(ym.atDay(1), ym.atEndOfMonth());
+                runInBackground("Building report", true, progress -> manager.cachedReport(Arrays.asList("monthly", m, y), scope,
+                        () -> buildMonthlyReport(m, y, progress)), reportArea::setText);
+            } catch (Exception ex) {
+                JOptionPane.showMessageDialog(this, "Enter valid month & year!", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        saveReport.addActionListener(e -> {
+            String name = promptFileName("report.txt");
+            if (name == null) return;
+            String text = reportArea.getText();
+            runInBackground("Saving " + name, progress -> {
+                try (ExpenseReportWriter out = ExpenseReportWriter.file(Paths.get(name))) {
+                    out.text(text);
+                }
+                return name;
+            }, saved -> {});
+        });
+
+        exportAll.addActionListener(e -> {
+            String name = promptFileName("export_all.csv");
+            if (name != null) runInBackground("Exporting " + name, true, progress -> manager.exportAllToCsv(name, progress), this::exportDone);
+        });
+
+        exportMonthly.addActionListener(e -> {
+            try {
+                int m = Integer.parseInt(month.getText().trim());
+                int y = Integer.parseInt(year.getText().trim());
+                String def = "export_" + y + "_" + String.format("%02d", m) + ".csv";
+                String name = promptFileName(def);
+                if (name != null) {
+                    runInBackground("Exporting " + name, true, progress -> manager.exportMonthlyToCsv(m, y, name, progress), this::exportDone);
+                }
+            } catch (Exception ex) {
+                JOptionPane.showMessageDialog(this, "Enter valid month & year!", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        // Top / bottom N, scoped to the month above when it is filled in
+        JPanel topControls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JTextField topN = new JTextField("10", 3);
+        String[] cats = manager.getCategories();
+        String[] choices = new String[cats.length + 1];
+        choices[0] = "All";
+        System.arraycopy(cats, 0, choices, 1, cats.length);
+        JComboBox<String> topCat = new JComboBox<>(choices);
+        JCheckBox smallest = new JCheckBox("Smallest");
+        JButton showTop = new JButton("Show Top N");
+        topControls.add(new JLabel("Top N:"));
+        topControls.add(topN);
+        topControls.add(new JLabel("Category:"));
+        topControls.add(topCat);
+        topControls.add(smallest);
+        topControls.add(showTop);
+
+        showTop.addActionListener(e -> {
+            try {
+                int n = Integer.parseInt(topN.getText().trim());
+                String c = "All".equals(topCat.getSelectedItem()) ? null : (String) topCat.getSelectedItem();
+                LocalDate from = null, to = null;
+                if (!month.getText().trim().isEmpty() || !year.getText().trim().isEmpty()) {
+                    YearMonth ym = YearMonth.of(Integer.parseInt(year.getText().trim()), Integer.parseInt(month.getText().trim()));
+                    from = ym.atDay(1);
+                    to = ym.atEndOfMonth();
+                }
+                boolean largest = !smallest.isSelected();
+                LocalDate f = from, t = to;
+                ExpenseQuery scope = ExpenseQuery.all().category(c).between(f, t);
+                runInBackground("Finding top " + n, progress -> manager.cachedReport(Arrays.asList("top", n, largest, scope), scope,
+                        () -> buildTopReport(n, largest, c, f, t)), reportArea::setText);
+            } catch (Exception ex) {
+                JOptionPane.showMessageDialog(this, "Enter a valid N (and month & year, or leave both blank)!", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        // Trend over the year above (or the last 12 months), answered from the daily rollups
+        JPanel trendControls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JComboBox<ExpenseRollups.Granularity> granularity = new JComboBox<>(ExpenseRollups.Granularity.values());
+        granularity.setSelectedItem(ExpenseRollups.Granularity.MONTH);
+        JButton showTrend = new JButton("Show Trend");
+        trendControls.add(new JLabel("Trend by:"));
+        trendControls.add(granularity);
+        trendControls.add(showTrend);
+
+        showTrend.addActionListener(e -> {
+            try {
+                LocalDate from, to;
+                if (!year.getText().trim().isEmpty()) {
+                    from = LocalDate.of(Integer.parseInt(year.getText().trim()), 1, 1);
+                    to = from.plusYears(1).minusDays(1);
+                } else {
+                    to = LocalDate.now();
+                    from = to.minusYears(1).plusDays(1);
+                }
+                String c = "All".equals(topCat.getSelectedItem()) ? null : (String) topCat.getSelectedItem();
+                ExpenseRollups.Granularity g = (ExpenseRollups.Granularity) granularity.getSelectedItem();
+                runInBackground("Building trend", progress -> buildTrendReport(c, from, to, g), reportArea::setText);
+            } catch (Exception ex) {
+                JOptionPane.showMessageDialog(this, "Enter a valid year, or leave it blank!", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        JPanel north = new JPanel(new GridLayout(3, 1));
+        north.add(controls);
+        north.add(topControls);
+        north.add(trendControls);
+        p.add(north, BorderLayout.NORTH);
+        p.add(new JScrollPane(reportArea), BorderLayout.CENTER);
+        return p;
+    }
+
+    private String promptFileName(String def) {
+        String name = JOptionPane.showInputDialog(this, "Output filename:", def);
+        if (name == null) return null;
+        name = name.trim();
+        if (name.isEmpty()) name = def;
+        return name;
+    }
+
+    private void exportDone(boolean ok) {
+        if (!ok) JOptionPane.showMessageDialog(this, "Export failed.", "Error", JOptionPane.ERROR_MESSAGE);
+    }
+
+    private String buildTopReport(int n, boolean largest, String category, LocalDate from, LocalDate to) {
+        List<Expense> list = manager.topExpenses(n, largest, category, from, to);
+        StringBuilder sb = new StringBuilder();
+        try (ExpenseReportWriter out = ExpenseReportWriter.text(sb)) {
+            out.text("---- ").text(largest ? "Top " : "Bottom ").integer(n, 0)
+                    .text(category == null ? "" : " " + category).text(from == null ? "" : " (" + from + " to " + to + ")")
+                    .text(" ----").newline().header();
+            long total = 0;
+            for (Expense e : list) {
+                out.row(e);
+                total += e.getCents();
+            }
+            out.newline().text("TOTAL: ").money(total, 0).newline();
+        }
+        return sb.toString();
+    }
+
+    private String buildTrendReport(String category, LocalDate from, LocalDate to, ExpenseRollups.Granularity g) {
+        List<ExpenseRollups.Bucket> buckets = manager.getTrend(category, from, to, g);
+        double max = 1.0;
+        long total = 0;
+        for (ExpenseRollups.Bucket b : buckets) {
+            max = Math.max(max, b.sum);
+            total += b.cents;
+        }
+        StringBuilder sb = new StringBuilder();
+        try (ExpenseReportWriter out = ExpenseReportWriter.text(sb)) {
+            out.text("---- " + g + " Trend (" + (category == null ? "All" : category) + "): " + from + " to " + to + " ----").newline();
+            out.left("From", 12).ch(' ').right("Count", 6).text("   Amount").newline();
+            for (ExpenseRollups.Bucket b : buckets) {
+                out.date(b.start.toEpochDay(), 10).text("   ").integer(b.count, 6).text(" | ")
+                        .bar(b.sum, max, 30).ch(' ').money(b.cents, 0).newline();
+            }
+            out.newline().text("TOTAL: ").money(total, 0).newline();
+        }
+        return sb.toString();
+    }
+
+    // streams into the report area as it goes, and returns the whole text (null if cancelled) for the cache
+    private String buildMonthlyReport(int month, int year, ExpenseManager.Progress progress) {
+        List<Expense> list = manager.getMonthlyExpenses(month, year);
+        String[] cats = manager.getCategories();
+        Map<String, Double> totals = manager.getMonthlyTotals(month, year);
+        double total = 0.0;
+        for (double v : totals.values()) total += v;
+        for (String c : cats) totals.putIfAbsent(c, 0.0);
+        double max = 1.0;
+        for (double v : totals.values()) if (v > max) max = v;
+
+        SwingUtilities.invokeLater(() -> reportArea.setText(""));
+        StringBuilder text = new StringBuilder();
+        try (ExpenseReportWriter out = ExpenseReportWriter.textArea(reportArea, text)) {
+            out.text("---- Monthly Report: ").text(month < 10 ? "0" : "").integer(month, 0).ch('/').integer(year, 0)
+                    .text(" ----").newline().header();
+            for (int i = 0; i < list.size(); i++) {
+                if ((i & 1023) == 0 && !progress.update(i, list.size())) return null;
+                out.row(list.get(i));
+            }
+            out.newline().text("Category Breakdown:").newline();
+            for (String c : cats) {
+                double amt = totals.get(c);
+                out.left(c, 15).text(" | ").bar(amt, max, 30).ch(' ').amount(amt, 2).newline();
+            }
+            out.newline().text("TOTAL: ").amount(total, 2).newline();
+        }
+        return text.toString();
+    }
+
+    /* ---------------- Background Tasks ---------------- */
+
+    /**
+     * Work for the background worker; it reports through {@code progress} and stops when that
+     * returns false. Cancel is only offered for tasks that check it.
+     */
+    interface Task<T> {
+        T run(ExpenseManager.Progress progress) throws Exception;
+    }
+
+    private JPanel buildStatusBar() {
+        JPanel bar = new JPanel(new BorderLayout(8, 0));
+        bar.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+        progressBar.setVisible(false);
+        cancelBtn.setEnabled(false);
+        cancelBtn.addActionListener(e -> {
+            // cooperative: the task sees it through Progress, so open files are closed cleanly
+            if (cancelRequest != null) cancelRequest.set(true);
+        });
+        JPanel right = new JPanel(new FlowLayout(FlowLayout.RIGHT, 6, 0));
+        right.add(progressBar);
+        right.add(cancelBtn);
+        bar.add(status, BorderLayout.CENTER);
+        bar.add(right, BorderLayout.EAST);
+        return bar;
+    }
+
+    /** Runs {@code task} off the EDT, then hands its result to {@code onDone} back on the EDT. */
+    private <T> void runInBackground(String label, Task<T> task, Consumer<T> onDone) {
+        runInBackground(label, false, task, onDone);
+    }
+
+    /**
+     * Like {@link #runInBackground(String, Task, Consumer)}; a {@code cancellable} task gets the
+     * Cancel button while it runs. The status bar follows whichever task the worker has started,
+     * so a task queued behind it cannot take the button away. A task only counts as cancelled once
+     * its Progress has returned false, so one that finished first still reports (and refreshes) as done.
+     */
+    private <T> void runInBackground(String label, boolean cancellable, Task<T> task, Consumer<T> onDone) {
+        AtomicBoolean request = new AtomicBoolean();
+        AtomicBoolean stopped = new AtomicBoolean(); // the task saw the request and gave up
+        SwingWorker<T, Void> sw = new SwingWorker<T, Void>() {
+            @Override
+            protected T doInBackground() throws Exception {
+                SwingUtilities.invokeLater(() -> started(this, label, cancellable ? request : null));
+                return task.run((done, total) -> {
+                    if (total > 0) setProgress((int) Math.min(100, done * 100 / total));
+                    if (request.get()) stopped.set(true);
+                    return !stopped.get();
+                });
+            }
+
+            @Override
+            protected void done() {
+                if (running == this) {
+                    running = null;
+                    cancelRequest = null;
+                    progressBar.setVisible(false);
+                    cancelBtn.setEnabled(false);
+                }
+                if (stopped.get()) {
+                    status.setText(label + " cancelled.");
+                    return;
+                }
+                try {
+                    onDone.accept(get());
+                    status.setText(label + " done.");
+                } catch (ExecutionException ex) {
+                    status.setText(label + " failed.");
+                    Throwable cause = ex.getCause() == null ? ex : ex.getCause();
+                    JOptionPane.showMessageDialog(ExpenseManagerGUI.this, "Invalid input: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        sw.addPropertyChangeListener(ev -> {
+            if ("progress".equals(ev.getPropertyName())) {
+                progressBar.setIndeterminate(false);
+                progressBar.setValue((Integer) ev.getNewValue());
+            }
+        });
+        worker.execute(sw);
+    }
+
+    // the worker has picked up sw: the status bar and Cancel button now belong to it
+    private void started(SwingWorker<?, ?> sw, String label, AtomicBoolean request) {
+        running = sw;
+        cancelRequest = request;
+        status.setText(label + "...");
+        progressBar.setValue(0);
+        progressBar.setIndeterminate(true);
+        progressBar.setVisible(true);
+        cancelBtn.setEnabled(request != null);
+    }
+
+    /* ---------------- Helpers ---------------- */
+    // tells the model which rows are on screen, so it pages in just their history months
+    private void showVisibleRows() {
+        Rectangle r = table.getVisibleRect();
+        int first = table.rowAtPoint(r.getLocation());
+        int last = table.rowAtPoint(new Point(r.x, r.y + r.height - 1));
+        tableModel.setVisibleRows(first, last < 0 ? table.getRowCount() - 1 : last);
+    }
+
+    private void refreshTable() {
+        ExpenseStore snap = manager.snapshot();
+        if (tableModel.isStoreOrder()) {
+            tableModel.showStoreOrder(snap); // O(1): only the appended rows are announced
+            return;
+        }
+        ExpenseTableModel.ViewSpec spec = tableModel.spec();
+        runInBackground("Sorting expenses", progress -> spec.build(manager, snap), tableModel::setView);
+    }
+
+    /* ---------------- Main ---------------- */
+    public static void main(String[] args) {
+        try {
+            for (UIManager.LookAndFeelInfo info : UIManager.getInstalledLookAndFeels()) {
+                if ("Nimbus".equals(info.getName())) {
+                    UIManager.setLookAndFeel(info.getClassName());
+                    break;
+                }
+            }
+        } catch (Exception ignored) {}
+
+        // load the ledger on the main thread, before the EDT has anything to paint
+        ExpenseManager manager = new ExpenseManager();
+        SwingUtilities.invokeLater(() -> new ExpenseManagerGUI(manager).setVisible(true));
+    }
+}
@@ -0,0 +1,338 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.management.*;
+
+/**
+ * Process-wide latency histograms and counters for the ledger's operations.
+ *
+ * Each {@link Op} is timed into a log-bucketed histogram (HdrHistogram-style: SUB_BUCKETS
+ * linear buckets per power of two, so a percentile is within about 3% of the recorded value)
+ * held in lock-free atomic arrays, and is also emitted as a JFR "expense.Operation" event when a
+ * recording enables it. Everything is published as the JMX bean "ExpenseManager:type=Metrics"
+ * (unless {@code -Dexpense.jmx=false}) and, with {@code -Dexpense.metricsFile}, appended to that
+ * file as one JSON line every {@code -Dexpense.metricsIntervalSec} seconds (default 60) and on
+ * close.
+ */
+final class ExpenseMetrics implements DynamicMBean {
+    static final String OBJECT_NAME = "ExpenseManager:type=Metrics";
+
+    private static final String RESET = "\u001B[0m";
+    private static final String YELLOW = "\u001B[33m";
+
+    enum Op {
+        ADD, IMPORT, SAVE, COMPACT, LOAD, SEARCH, REPORT, EXPORT;
+
+        final String key = name().toLowerCase();
+    }
+
+    enum Counter {
+        ROWS_LOADED("rowsLoaded"), ROWS_SKIPPED("rowsSkipped"), BYTES_READ("bytesRead"), BYTES_WRITTEN("bytesWritten"),
+        CACHE_HITS("cacheHits"), CACHE_MISSES("cacheMisses"), CACHE_EVICTIONS("cacheEvictions"), CACHE_INVALIDATIONS("cacheInvalidations");
+
+        final String key;
+
+        Counter(String key) { this.key = key; }
+    }
+
+    /** Log-linear histogram of non-negative longs; record() is wait-free. */
+    static final class Histogram {
+        private static final int SUB_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long value) {
+            long v = Math.max(0, value);
+            counts.incrementAndGet(index(v));
+            count.increment();
+            sum.add(v);
+            max.accumulate(v);
+        }
+
+        long count() { return count.sum(); }
+        long max() { return max.get(); }
+        double mean() { long n = count.sum(); return n == 0 ? 0 : (double) sum.sum() / n; }
+
+        /** Highest value in the bucket holding the {@code percentile}th value (0-100), capped at max. */
+        long percentile(double percentile) {
+            long[] snap = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) total += snap[i] = counts.get(i);
+            if (total == 0) return 0;
+            long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snap[i];
+                if (seen >= target) return Math.min(max(), lowest(i + 1) - 1);
+            }
+            return max();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+            count.reset();
+            sum.reset();
+            max.reset();
+        }
+
+        private static int index(long v) {
+            if (v < SUB_BUCKETS) return (int) v;
+            int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+            return (shift << SUB_BITS) + (int) (v >>> shift);
+        }
+
+        private static long lowest(int index) {
+            if (index < 2 * SUB_BUCKETS) return index;
+            int shift = (index >> SUB_BITS) - 1;
+            return (long) ((index & (SUB_BUCKETS - 1)) + SUB_BUCKETS) << shift;
+        }
+    }
+
+    /** Per-operation latency (ns), rows handled and failures. */
+    static final class OpStats {
+        final Histogram latency = new Histogram();
+        final LongAdder rows = new LongAdder();
+        final LongAdder errors = new LongAdder();
+    }
+
+    @jdk.jfr.Name("expense.Operation")
+    @jdk.jfr.Label("Expense Operation")
+    @jdk.jfr.Category("Expense Manager")
+    @jdk.jfr.StackTrace(false)
+    static final class OperationEvent extends jdk.jfr.Event {
+        @jdk.jfr.Label("Operation") String operation;
+        @jdk.jfr.Label("Rows") long rows;
+        @jdk.jfr.Label("Failed") boolean failed;
+    }
+
+    /** Times one operation; use with try-with-resources. */
+    static final class Timer implements AutoCloseable {
+        private final Op op;
+        private final long start = System.nanoTime();
+        // null until JFR is running: the first event instance bootstraps JFR's metadata, which
+        // costs a few hundred ms of startup that short runs (the CLI) shouldn't pay for nothing
+        private final OperationEvent event = jdk.jfr.FlightRecorder.isInitialized() ? new OperationEvent() : null;
+        private long rows;
+        private boolean failed;
+
+        private Timer(Op op) {
+            this.op = op;
+            if (event != null) event.begin();
+        }
+
+        Timer rows(long n) {
+            rows = n;
+            return this;
+        }
+
+        void failed() { failed = true; }
+
+        @Override
+        public void close() {
+            GLOBAL.record(op, System.nanoTime() - start, rows, failed);
+            if (event == null) return;
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = op.key;
+                event.rows = rows;
+                event.failed = failed;
+                event.commit();
+            }
+        }
+    }
+
+    private static final ExpenseMetrics GLOBAL = new ExpenseMetrics();
+
+    static {
+        if (ExpenseConfig.jmxEnabled()) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(GLOBAL, new ObjectName(OBJECT_NAME));
+            } catch (JMException ex) {
+                System.out.println(YELLOW + "Metrics are not available over JMX: " + ex.getMessage() + RESET);
+            }
+        }
+        Path file = ExpenseConfig.metricsFile();
+        if (file != null) {
+            ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "expense-metrics");
+                t.setDaemon(true);
+                return t;
+            });
+            long every = ExpenseConfig.metricsIntervalSeconds();
+            dumper.scheduleAtFixedRate(GLOBAL::dumpQuietly, every, every, TimeUnit.SECONDS);
+        }
+    }
+
+    private final EnumMap<Op, OpStats> ops = new EnumMap<>(Op.class);
+    private final EnumMap<Counter, LongAdder> counters = new EnumMap<>(Counter.class);
+    private final Map<String, Supplier<Object>> attributes = new LinkedHashMap<>();
+    private final MBeanInfo info;
+
+    private ExpenseMetrics() {
+        for (Op op : Op.values()) ops.put(op, new OpStats());
+        for (Counter c : Counter.values()) counters.put(c, new LongAdder());
+
+        for (Counter c : Counter.values()) attributes.put(c.key, () -> counters.get(c).sum());
+        for (Op op : Op.values()) {
+            OpStats s = ops.get(op);
+            attributes.put(op.key + "Count", s.latency::count);
+            attributes.put(op.key + "Errors", s.errors::sum);
+            attributes.put(op.key + "Rows", s.rows::sum);
+            attributes.put(op.key + "MeanMicros", () -> s.latency.mean() / 1e3);
+            attributes.put(op.key + "P50Micros", () -> micros(s.latency.percentile(50)));
+            attributes.put(op.key + "P99Micros", () -> micros(s.latency.percentile(99)));
+            attributes.put(op.key + "P999Micros", () -> micros(s.latency.percentile(99.9)));
+            attributes.put(op.key + "MaxMicros", () -> micros(s.latency.max()));
+        }
+        List<MBeanAttributeInfo> attrs = new ArrayList<>();
+        for (Map.Entry<String, Supplier<Object>> en : attributes.entrySet()) {
+            String type = en.getValue().get() instanceof Double ? "double" : "long";
+            attrs.add(new MBeanAttributeInfo(en.getKey(), type, en.getKey(), true, false, false));
+        }
+        MBeanOperationInfo[] operations = {
+                new MBeanOperationInfo("reset", "Zeroes every histogram and counter", new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION),
+                new MBeanOperationInfo("dump", "Appends the current figures to the metrics file", new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION)};
+        info = new MBeanInfo(ExpenseMetrics.class.getName(), "Expense ledger latencies and counters",
+                attrs.toArray(new MBeanAttributeInfo[0]), null, operations, null);
+    }
+
+    static ExpenseMetrics global() { return GLOBAL; }
+
+    static Timer time(Op op) { return new Timer(op); }
+
+    void add(Counter c, long n) { counters.get(c).add(n); }
+
+    /** Counts a failure of {@code op} that happened outside a Timer (e.g. a background fsync). */
+    void error(Op op) { ops.get(op).errors.increment(); }
+
+    OpStats stats(Op op) { return ops.get(op); }
+
+    long counter(Counter c) { return counters.get(c).sum(); }
+
+    private void record(Op op, long nanos, long rows, boolean failed) {
+        OpStats s = ops.get(op);
+        s.latency.record(nanos);
+        s.rows.add(rows);
+        if (failed) s.errors.increment();
+    }
+
+    void reset() {
+        for (OpStats s : ops.values()) {
+            s.latency.reset();
+            s.rows.reset();
+            s.errors.reset();
+        }
+        for (LongAdder c : counters.values()) c.reset();
+    }
+
+    /* ------------ Periodic dump ------------ */
+
+    /** One JSON object with every counter and, per operation that ran, its count and latency percentiles. */
+    String toJson() {
+        StringBuilder sb = new StringBuilder("{\"time\": \"").append(LocalDateTime.now().withNano(0)).append('"');
+        for (Counter c : Counter.values()) sb.append(", \"").append(c.key).append("\": ").append(counter(c));
+        sb.append(", \"ops\": {");
+        boolean first = true;
+        for (Op op : Op.values()) {
+            OpStats s = ops.get(op);
+            if (s.latency.count() == 0 && s.errors.sum() == 0) continue;
+            if (!first) sb.append(", ");
+            first = false;
+            sb.append('"').append(op.key).append("\": {\"count\": ").append(s.latency.count())
+                    .append(", \"errors\": ").append(s.errors.sum()).append(", \"rows\": ").append(s.rows.sum())
+                    .append(String.format(Locale.ROOT, ", \"meanMicros\": %.1f", s.latency.mean() / 1e3))
+                    .append(", \"p50Micros\": ").append(micros(s.latency.percentile(50)))
+                    .append(", \"p90Micros\": ").append(micros(s.latency.percentile(90)))
+                    .append(", \"p99Micros\": ").append(micros(s.latency.percentile(99)))
+                    .append(", \"p999Micros\": ").append(micros(s.latency.percentile(99.9)))
+                    .append(", \"maxMicros\": ").append(micros(s.latency.max())).append('}');
+        }
+        return sb.append("}}").toString();
+    }
+
+    /** Appends {@link #toJson()} to {@code -Dexpense.metricsFile}; does nothing when it is not set. */
+    void dump() throws IOException {
+        Path file = ExpenseConfig.metricsFile();
+        if (file == null) return;
+        Files.write(file, (toJson() + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    void dumpQuietly() {
+        try {
+            dump();
+        } catch (IOException ex) {
+            System.out.println(YELLOW + "Could not write metrics: " + ex.getMessage() + RESET);
+        }
+    }
+
+    private static long micros(long nanos) {
+        return nanos / 1_000;
+    }
+
+    /* ------------ DynamicMBean ------------ */
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Supplier<Object> value = attributes.get(attribute);
+        if (value == null) throw new AttributeNotFoundException(attribute);
+        return value.get();
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names) {
+        AttributeList list = new AttributeList();
+        for (String name : names) {
+            Supplier<Object> value = attributes.get(name);
+            if (value != null) list.add(new Attribute(name, value.get()));
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String action, Object[] params, String[] signature) throws MBeanException, ReflectionException {
+        switch (action) {
+            case "reset":
+                reset();
+                return null;
+            case "dump":
+                try {
+                    dump();
+                } catch (IOException ex) {
+                    throw new MBeanException(ex);
+                }
+                return null;
+            default:
+                throw new ReflectionException(new NoSuchMethodException(action));
+        }
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        return info;
+    }
+}
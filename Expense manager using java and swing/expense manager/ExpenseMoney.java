@@ -0,0 +1,137 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Money as exact long cents.
+ *
+ * Amounts are stored, persisted and summed as whole cents, so totals are exact however many rows
+ * they cover and running sums are plain longs rather than boxed or drifting doubles. Doubles are
+ * left only at the edges (the public API, budget limits and the GUI), converted here. Sub-cent
+ * input is rounded half-up on its decimal form, the way the reports have always printed it.
+ *
+ * {@link #sum} is a counted loop over a contiguous long column with nothing in the body but the
+ * add, which C2 turns into a SIMD long-add reduction; grand totals of stored rows go through it.
+ * {@link #sumByKey} totals a column per category, scattering into small per-category arrays
+ * instead of a map. That indexed store stays scalar (C2 does not vectorize scatters), but it is
+ * still one pass with no hashing or boxing; it totals the history a lazy load leaves on disk.
+ */
+final class ExpenseMoney {
+    /** Largest accepted amount (exclusive), so a column of them still sums without overflow. */
+    static final double MAX_AMOUNT = 1e12;
+    private static final long MAX_CENTS = 100_000_000_000_000L;
+
+    private ExpenseMoney() {}
+
+    /* ------------ Conversion ------------ */
+
+    /** Rounds {@code amount} to cents; NaN, infinities and |amount| >= 1e12 are rejected. */
+    static long toCents(double amount) {
+        if (!(Math.abs(amount) < MAX_AMOUNT)) throw new NumberFormatException("amount out of range: " + amount);
+        double x = amount * 100;
+        long c = Math.round(x);
+        if (Math.abs(x - c) < 1e-6) return c; // whole cents up to binary noise, the common case
+        return BigDecimal.valueOf(amount).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValue();
+    }
+
+    static double toAmount(long cents) {
+        return cents / 100.0;
+    }
+
+    /** Smallest cent count >= {@code amount}; -infinity maps to Long.MIN_VALUE. For range bounds. */
+    static long ceilCents(double amount) {
+        if (amount == Double.NEGATIVE_INFINITY) return Long.MIN_VALUE;
+        if (!(amount < MAX_AMOUNT)) return Long.MAX_VALUE;
+        return (long) Math.ceil(amount * 100 - 1e-7);
+    }
+
+    /** Largest cent count <= {@code amount}; +infinity maps to Long.MAX_VALUE. For range bounds. */
+    static long floorCents(double amount) {
+        if (amount == Double.POSITIVE_INFINITY) return Long.MAX_VALUE;
+        if (!(amount > -MAX_AMOUNT)) return Long.MIN_VALUE;
+        return (long) Math.floor(amount * 100 + 1e-7);
+    }
+
+    /**
+     * Parses [-+]digits[.digits] from {@code b[s, e)} into cents exactly and in place, rounding
+     * half-up past the second decimal; anything else (exponents, huge values) goes through
+     * BigDecimal. Throws NumberFormatException for non-numbers such as NaN.
+     */
+    static long parseCents(byte[] b, int s, int e) {
+        int i = s;
+        boolean neg = false;
+        if (i < e && (b[i] == '-' || b[i] == '+')) neg = b[i++] == '-';
+        long whole = 0;
+        int digits = 0;
+        long frac = 0;
+        int fracDigits = -1;
+        boolean roundUp = false;
+        for (; i < e; i++) {
+            byte c = b[i];
+            if (c >= '0' && c <= '9') {
+                if (fracDigits < 0) {
+                    if (++digits > 12) return parseSlow(b, s, e);
+                    whole = whole * 10 + (c - '0');
+                } else {
+                    if (fracDigits < 2) frac = frac * 10 + (c - '0');
+                    else if (fracDigits == 2) roundUp = c >= '5';
+                    fracDigits++;
+                }
+            } else if (c == '.' && fracDigits < 0) {
+                fracDigits = 0;
+            } else {
+                return parseSlow(b, s, e);
+            }
+        }
+        if (digits == 0 && fracDigits <= 0) return parseSlow(b, s, e);
+        long cents = whole * 100 + (fracDigits == 1 ? frac * 10 : frac) + (roundUp ? 1 : 0);
+        return neg ? -cents : cents;
+    }
+
+    private static long parseSlow(byte[] b, int s, int e) {
+        String text = new String(b, s, e - s, StandardCharsets.UTF_8);
+        BigDecimal cents;
+        try {
+            cents = new BigDecimal(text.trim()).movePointRight(2).setScale(0, RoundingMode.HALF_UP);
+        } catch (NumberFormatException ex) {
+            throw new NumberFormatException("not an amount: \"" + text + "\"");
+        }
+        if (cents.abs().compareTo(BigDecimal.valueOf(MAX_CENTS)) >= 0) throw new NumberFormatException("amount out of range: " + text);
+        return cents.longValue();
+    }
+
+    /** "-12.05" style: optional sign, whole units, always two decimals. */
+    static String format(long cents) {
+        return append(new StringBuilder(24), cents).toString();
+    }
+
+    static StringBuilder append(StringBuilder sb, long cents) {
+        if (cents < 0) sb.append('-');
+        long a = Math.abs(cents);
+        sb.append(a / 100).append('.');
+        long c = a % 100;
+        return sb.append((char) ('0' + c / 10)).append((char) ('0' + c % 10));
+    }
+
+    /* ------------ Sum kernels ------------ */
+
+    /** Sum of {@code cents[from, to)}. */
+    static long sum(long[] cents, int from, int to) {
+        long s = 0;
+        for (int i = from; i < to; i++) s += cents[i];
+        return s;
+    }
+
+    /**
+     * Adds {@code cents[i]} into {@code totals[keys[i]]} and one into {@code counts[keys[i]]} for i
+     * in [from, to); both arrays are indexed by category id, so a whole-column breakdown is one
+     * pass with no hashing or boxing.
+     */
+    static void sumByKey(long[] cents, short[] keys, int from, int to, long[] totals, long[] counts) {
+        for (int i = from; i < to; i++) {
+            int k = keys[i];
+            totals[k] += cents[i];
+            counts[k]++;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Older months of a lazily loaded ledger, paged in from mapped binary files.
+ *
+ * At startup only the day and amount columns of the rows left on disk are scanned, to group
+ * them by month; with partitioned storage every month is simply its own file. A month is decoded
+ * into its own date-ordered {@link ExpenseStore} the first time a query needs it and kept in an
+ * LRU cache bounded by an estimate of its heap size, so a session that only looks at recent
+ * months never decodes the rest. Partition checksums are verified on first use.
+ */
+class ExpensePager {
+    private final String RESET = "\u001B[0m";
+    private final String RED = "\u001B[31m";
+
+    private final TreeMap<Integer, List<ExpenseBinaryFile.Slice>> months = new TreeMap<>(); // month key -> rows
+    private final Set<ExpenseBinaryFile> verified = new HashSet<>();
+    private final int rows;
+    private final long maxCents;
+    private final long maxBytes;
+
+    private final LinkedHashMap<Integer, ExpenseStore> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Integer, Long> pageBytes = new HashMap<>();
+    private long cachedBytes;
+    private long hits, misses, evictions;
+
+    /** {@code history} as returned by {@link ExpenseJournal#history()}; whole-file slices must be verified before use. */
+    ExpensePager(List<ExpenseBinaryFile.Slice> history, long maxBytes) {
+        this.maxBytes = maxBytes;
+        int total = 0;
+        long max = 0;
+        for (ExpenseBinaryFile.Slice slice : history) {
+            ExpenseBinaryFile file = slice.file;
+            if (slice.rows != null) verified.add(file); // lazily loaded single snapshots were checked by open()
+            Map<Integer, IntList> byMonth = new HashMap<>();
+            int lastDay = Integer.MIN_VALUE, lastKey = 0;
+            for (int i = 0; i < slice.size(); i++) {
+                int row = slice.row(i);
+                int day = file.epochDay(row);
+                if (day != lastDay) {
+                    lastDay = day;
+                    lastKey = ExpensePartitions.key(day);
+                }
+                byMonth.computeIfAbsent(lastKey, k -> new IntList()).add(row);
+                max = Math.max(max, file.cents(row));
+            }
+            byMonth.forEach((k, v) -> months.computeIfAbsent(k, x -> new ArrayList<>()).add(new ExpenseBinaryFile.Slice(file, v.toArray())));
+            total += slice.size();
+        }
+        rows = total;
+        maxCents = max;
+    }
+
+    /** Rows left on disk. */
+    int size() { return rows; }
+
+    /** Rows on disk in month {@code key} (see {@link #months}), counted without paging it in. */
+    int monthSize(int key) {
+        int n = 0;
+        for (ExpenseBinaryFile.Slice slice : months.get(key)) n += slice.size();
+        return n;
+    }
+
+    /** Largest amount on disk, read from the fixed-width column without paging anything in. */
+    double maxAmount() { return ExpenseMoney.toAmount(maxCents); }
+
+    /**
+     * Hands each month overlapping [from, to] (null = unbounded) to {@code action}, oldest first.
+     * Rows within a page are in date order; pages may include days outside the range.
+     */
+    void forEachPage(LocalDate from, LocalDate to, Consumer<ExpenseStore> action) {
+        for (int month : months(from, to)) {
+            action.accept(page(month)); // only one page is pinned at a time, so the cache bound holds
+        }
+    }
+
+    /** Keys of the months on disk overlapping [from, to] (null = unbounded), oldest first; see {@link #page}. */
+    List<Integer> months(LocalDate from, LocalDate to) {
+        if (from != null && to != null && from.isAfter(to)) return Collections.emptyList();
+        int lo = from == null ? Integer.MIN_VALUE : ExpensePartitions.key(from);
+        int hi = to == null ? Integer.MAX_VALUE : ExpensePartitions.key(to);
+        return new ArrayList<>(months.subMap(lo, true, hi, true).keySet());
+    }
+
+    /** One month's rows in date order, from the cache or decoded from disk. */
+    synchronized ExpenseStore page(int month) {
+        ExpenseStore page = cache.get(month);
+        if (page != null) {
+            hits++;
+            return page;
+        }
+        misses++;
+        page = load(months.get(month));
+        long bytes = estimate(page);
+        cache.put(month, page);
+        pageBytes.put(month, bytes);
+        cachedBytes += bytes;
+        Iterator<Map.Entry<Integer, ExpenseStore>> it = cache.entrySet().iterator();
+        while (cachedBytes > maxBytes && cache.size() > 1) {
+            Integer eldest = it.next().getKey();
+            it.remove();
+            cachedBytes -= pageBytes.remove(eldest);
+            evictions++;
+        }
+        return page;
+    }
+
+    // decodes a month's slices in date order (a stable counting sort, so same-day rows keep file order)
+    private ExpenseStore load(List<ExpenseBinaryFile.Slice> slices) {
+        List<ExpenseBinaryFile.Slice> usable = new ArrayList<>();
+        int n = 0;
+        for (ExpenseBinaryFile.Slice slice : slices) {
+            if (verified.add(slice.file)) {
+                try {
+                    slice.file.verify();
+                } catch (IOException ex) {
+                    verified.remove(slice.file);
+                    System.out.println(RED + ex.getMessage() + "; its rows are skipped." + RESET);
+                    continue;
+                }
+            }
+            usable.add(slice);
+            n += slice.size();
+        }
+        if (usable.isEmpty()) return new ExpenseStore(1);
+        ExpenseBinaryFile.Slice head = usable.get(0);
+        int first = (int) LocalDate.ofEpochDay(head.file.epochDay(head.row(0))).withDayOfMonth(1).toEpochDay();
+        int[] count = new int[33];
+        for (ExpenseBinaryFile.Slice slice : usable) {
+            for (int i = 0; i < slice.size(); i++) count[slice.file.epochDay(slice.row(i)) - first + 1]++;
+        }
+        for (int i = 1; i < count.length; i++) count[i] += count[i - 1];
+        ExpenseBinaryFile.Slice[] fromSlice = new ExpenseBinaryFile.Slice[n];
+        int[] fromRow = new int[n];
+        for (ExpenseBinaryFile.Slice slice : usable) {
+            for (int i = 0; i < slice.size(); i++) {
+                int at = count[slice.file.epochDay(slice.row(i)) - first]++;
+                fromSlice[at] = slice;
+                fromRow[at] = slice.row(i);
+            }
+        }
+        ExpenseStore page = new ExpenseStore(n);
+        for (int i = 0; i < n; i++) {
+            ExpenseBinaryFile f = fromSlice[i].file;
+            int r = fromRow[i];
+            page.appendUnpublished(f.name(r), f.category(r), f.cents(r), f.epochDay(r), f.notes(r));
+        }
+        page.publish();
+        return page;
+    }
+
+    // rough heap size: columns and references per row plus string payloads
+    private static long estimate(ExpenseStore page) {
+        long bytes = 64L * page.size();
+        for (int r = 0; r < page.size(); r++) bytes += 2L * (page.name(r).length() + page.notes(r).length());
+        return bytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d rows in %d months on disk; %d cached (%.1f MB), %d hits, %d misses, %d evictions",
+                rows, months.size(), cache.size(), cachedBytes / 1e6, hits, misses, evictions);
+    }
+}
@@ -0,0 +1,172 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+
+/**
+ * Month-partitioned snapshot directory.
+ *
+ * Every year-month with expenses has its own {@link ExpenseBinaryFile} ("2024-05.<seq>.bin", rows
+ * in date order, per-category totals in the footer), and a small text manifest records the journal
+ * seq the directory covers plus one "month,rows,total" line per partition. Compaction rewrites
+ * only the months that received records, so an insert touches its own partition rather than
+ * the whole ledger, and readers open only the months they ask about.
+ *
+ * A rewrite goes to a new generation named after its seq instead of replacing the old file,
+ * which readers may still have mapped (and which Windows refuses to replace while it is). The
+ * newest generation of a month wins; an empty one marks a month with no rows left. Superseded
+ * files are deleted once nothing maps them, at the latest on the next {@link #open()}.
+ */
+class ExpensePartitions {
+    static final String MANIFEST = "manifest";
+
+    private final Path dir;
+    private final TreeMap<Integer, ExpenseBinaryFile> files = new TreeMap<>(); // month key -> partition
+    private long seq;
+
+    ExpensePartitions(Path dir) {
+        this.dir = dir;
+    }
+
+    /** Month key used for partitions and pages: year * 12 + month - 1. */
+    static int key(LocalDate d) {
+        return d.getYear() * 12 + d.getMonthValue() - 1;
+    }
+
+    static int key(int epochDay) {
+        return key(LocalDate.ofEpochDay(epochDay));
+    }
+
+    static YearMonth month(int key) {
+        return YearMonth.of(Math.floorDiv(key, 12), Math.floorMod(key, 12) + 1);
+    }
+
+    /** Seq in the manifest of {@code dir}, or -1 when there is no partitioned snapshot there. */
+    static long seq(Path dir) throws IOException {
+        Path manifest = dir.resolve(MANIFEST);
+        if (!Files.exists(manifest)) return -1;
+        try (BufferedReader r = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String first = r.readLine();
+            return first != null && first.startsWith("#seq,") ? Long.parseLong(first.substring(5).trim()) : 0;
+        } catch (NumberFormatException ex) {
+            throw new IOException(manifest + " is corrupt");
+        }
+    }
+
+    /** Maps the newest generation of every partition, checking only headers; rows are verified when first read. */
+    synchronized void open() throws IOException {
+        files.clear();
+        seq = Math.max(0, seq(dir));
+        if (!Files.isDirectory(dir)) return;
+        Map<Integer, Path> newest = new HashMap<>();
+        Map<Integer, Long> generation = new HashMap<>();
+        List<Path> superseded = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*.bin")) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                name = name.substring(0, name.length() - 4);
+                int dot = name.indexOf('.');
+                int month;
+                long gen;
+                try {
+                    month = key(YearMonth.parse(dot < 0 ? name : name.substring(0, dot)).atDay(1));
+                    gen = dot < 0 ? -1 : Long.parseLong(name.substring(dot + 1)); // "2024-05.bin" predates generations
+                } catch (RuntimeException ex) {
+                    continue; // not a partition
+                }
+                Long seen = generation.get(month);
+                if (seen != null && seen > gen) {
+                    superseded.add(p);
+                    continue;
+                }
+                if (seen != null) superseded.add(newest.get(month));
+                newest.put(month, p);
+                generation.put(month, gen);
+            }
+        }
+        for (Map.Entry<Integer, Path> en : newest.entrySet()) {
+            ExpenseBinaryFile f = ExpenseBinaryFile.open(en.getValue(), false);
+            if (f.size() > 0) files.put(en.getKey(), f);
+        }
+        for (Path p : superseded) deleteQuietly(p);
+    }
+
+    Path dir() { return dir; }
+
+    /** Seq of the manifest read by {@link #open()} or written last. */
+    synchronized long seq() { return seq; }
+
+    synchronized NavigableMap<Integer, ExpenseBinaryFile> files() {
+        return new TreeMap<>(files);
+    }
+
+    /** Highest journal seq already folded into {@code month}'s partition. */
+    synchronized long seqOf(int month) {
+        ExpenseBinaryFile f = files.get(month);
+        return f == null ? seq : Math.max(seq, f.seq());
+    }
+
+    /**
+     * Replaces the partition of every month in {@code months} with the given rows (any order),
+     * then rewrites the manifest for {@code upTo}. Each month gets a new generation file, written
+     * to a temp file and moved into place, so a crash leaves either the old or the new partition
+     * and no mapped file is ever overwritten. Returns the bytes written.
+     */
+    synchronized long write(Map<Integer, ExpenseStore> months, long upTo) throws IOException {
+        Files.createDirectories(dir);
+        long bytes = 0;
+        for (Map.Entry<Integer, ExpenseStore> en : months.entrySet()) {
+            Path target = dir.resolve(month(en.getKey()) + "." + upTo + ".bin");
+            ExpenseBinaryFile old = files.get(en.getKey());
+            if (old != null && old.path().equals(target)) continue; // already written by an earlier attempt at this seq
+            Path tmp = Paths.get(target + ".tmp");
+            ExpenseStore rows = en.getValue();
+            ExpenseBinaryFile.write(tmp, rows.isEmpty() ? rows : byDay(rows), upTo); // empty: the month is gone
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            bytes += Files.size(target);
+            if (rows.isEmpty()) files.remove(en.getKey());
+            else files.put(en.getKey(), ExpenseBinaryFile.open(target, false));
+            if (old != null) deleteQuietly(old.path()); // fails while still mapped on Windows; open() retries
+        }
+        seq = upTo;
+
+        StringBuilder sb = new StringBuilder("#seq," + upTo + "\n");
+        for (Map.Entry<Integer, ExpenseBinaryFile> en : files.entrySet()) {
+            ExpenseBinaryFile f = en.getValue();
+            long total = 0;
+            for (int id = 0; id < f.categoryDictionary().size(); id++) total += f.categoryCents(id);
+            sb.append(month(en.getKey())).append(',').append(f.size()).append(',');
+            ExpenseMoney.append(sb, total).append('\n');
+        }
+        Path manifest = dir.resolve(MANIFEST);
+        Path tmp = dir.resolve(MANIFEST + ".tmp");
+        byte[] text = sb.toString().getBytes(StandardCharsets.UTF_8);
+        Files.write(tmp, text);
+        Files.move(tmp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return bytes + text.length;
+    }
+
+    private static void deleteQuietly(Path p) {
+        try {
+            Files.deleteIfExists(p);
+        } catch (IOException ex) {
+            // still mapped by a reader; the next open() removes it
+        }
+    }
+
+    // stable counting sort of one month's rows on day of month
+    private static ExpenseStore byDay(ExpenseStore rows) {
+        int first = (int) rows.date(0).withDayOfMonth(1).toEpochDay();
+        int[] count = new int[33];
+        for (int r = 0; r < rows.size(); r++) count[rows.epochDay(r) - first + 1]++;
+        for (int i = 1; i < count.length; i++) count[i] += count[i - 1];
+        int[] order = new int[rows.size()];
+        for (int r = 0; r < rows.size(); r++) order[count[rows.epochDay(r) - first]++] = r;
+        ExpenseStore out = new ExpenseStore(rows.size());
+        for (int r : order) out.appendUnpublished(rows.name(r), rows.category(r), rows.cents(r), rows.epochDay(r), rows.notes(r));
+        out.publish();
+        return out;
+    }
+}
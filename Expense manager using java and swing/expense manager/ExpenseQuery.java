@@ -0,0 +1,312 @@
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Composable expense filter: category, date range, amount range and keyword, each optional and
+ * ANDed together. Queries are immutable; every narrowing method returns a new one, so a base
+ * query can be shared and refined, e.g. {@code ExpenseQuery.all().category("Food").amount(50, 200)}.
+ *
+ * Planning picks the cheapest candidate source for the rows in memory by comparing estimated
+ * sizes: the date index for a narrow range, the rarest n-gram posting of the keyword index, or a
+ * plain column scan. The predicates the source doesn't already guarantee are then applied in one
+ * pass, cheapest first (category id, day, amount, substring), split into chunks on the common
+ * pool once there are enough candidates to pay for it. On disk only the months overlapping the
+ * date range are paged in. Results are in date order.
+ */
+final class ExpenseQuery {
+    private static final int PARALLEL_THRESHOLD = 200_000;
+    private static final int CHUNK = 64 * 1024;
+
+    /** Where the in-memory candidates came from; reported by {@link Result#source()}. */
+    enum Source { DATE_INDEX, KEYWORD_INDEX, SCAN }
+
+    private static final ExpenseQuery ALL = new ExpenseQuery(null, null, null, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, null);
+
+    final String category;   // null = any, matched ignoring case
+    final LocalDate from;    // null = unbounded
+    final LocalDate to;      // null = unbounded
+    final double minAmount;
+    final double maxAmount;
+    final String keyword;    // null = any
+    private final long minCents; // the amount bounds as whole cents, compared with the cents column
+    private final long maxCents;
+
+    private ExpenseQuery(String category, LocalDate from, LocalDate to, double minAmount, double maxAmount, String keyword) {
+        this.category = category;
+        this.from = from;
+        this.to = to;
+        this.minAmount = minAmount;
+        this.maxAmount = maxAmount;
+        this.keyword = keyword;
+        this.minCents = ExpenseMoney.ceilCents(minAmount);
+        this.maxCents = ExpenseMoney.floorCents(maxAmount);
+    }
+
+    static ExpenseQuery all() { return ALL; }
+
+    ExpenseQuery category(String category) {
+        return new ExpenseQuery(blankToNull(category), from, to, minAmount, maxAmount, keyword);
+    }
+
+    /** Inclusive on both ends; either may be null for an open range. */
+    ExpenseQuery between(LocalDate from, LocalDate to) {
+        return new ExpenseQuery(category, from, to, minAmount, maxAmount, keyword);
+    }
+
+    /** Inclusive on both ends; pass an infinity for an open side. */
+    ExpenseQuery amount(double min, double max) {
+        return new ExpenseQuery(category, from, to, min, max, keyword);
+    }
+
+    /** Case-insensitive substring of the name, notes or category. */
+    ExpenseQuery keyword(String keyword) {
+        return new ExpenseQuery(category, from, to, minAmount, maxAmount, blankToNull(keyword));
+    }
+
+    boolean isAll() {
+        return category == null && from == null && to == null && keyword == null
+                && minAmount == Double.NEGATIVE_INFINITY && maxAmount == Double.POSITIVE_INFINITY;
+    }
+
+    private static String blankToNull(String s) {
+        return s == null || s.trim().isEmpty() ? null : s.trim();
+    }
+
+    /** True when row {@code r} of {@code store} passes every predicate; for checking single rows. */
+    boolean matches(ExpenseStore store, int r) {
+        if (category != null && !store.category(r).equalsIgnoreCase(category)) return false;
+        int day = store.epochDay(r);
+        if ((from != null && day < from.toEpochDay()) || (to != null && day > to.toEpochDay())) return false;
+        long c = store.cents(r);
+        if (c < minCents || c > maxCents) return false;
+        return keyword == null || ExpenseKeywordIndex.matches(store, r, keyword);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ExpenseQuery)) return false;
+        ExpenseQuery q = (ExpenseQuery) o;
+        return Objects.equals(category == null ? null : category.toLowerCase(), q.category == null ? null : q.category.toLowerCase())
+                && Objects.equals(from, q.from) && Objects.equals(to, q.to)
+                && Double.compare(minAmount, q.minAmount) == 0 && Double.compare(maxAmount, q.maxAmount) == 0
+                && Objects.equals(keyword == null ? null : keyword.toLowerCase(), q.keyword == null ? null : q.keyword.toLowerCase());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(category == null ? null : category.toLowerCase(), from, to, minAmount, maxAmount,
+                keyword == null ? null : keyword.toLowerCase());
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner j = new StringJoiner(", ");
+        if (category != null) j.add("Category: " + category);
+        if (from != null || to != null) j.add("Date: " + (from == null ? "any" : from) + " to " + (to == null ? "any" : to));
+        if (minAmount != Double.NEGATIVE_INFINITY || maxAmount != Double.POSITIVE_INFINITY) {
+            j.add("Amount: " + (minAmount == Double.NEGATIVE_INFINITY ? "any" : minAmount)
+                    + " to " + (maxAmount == Double.POSITIVE_INFINITY ? "any" : maxAmount));
+        }
+        if (keyword != null) j.add("Keyword: " + keyword);
+        return j.length() == 0 ? "All" : j.toString();
+    }
+
+    /* ------------ Planning ------------ */
+
+    /** Matching rows of an indexed store, in date order. */
+    IntList rows(ExpenseStore snap, ExpenseDateIndex dates, ExpenseKeywordIndex words) {
+        return plan(snap, dates, words).run(snap);
+    }
+
+    /** Matching rows of a store with no indexes (a history page), in date order. */
+    IntList rows(ExpenseStore page) {
+        return new Plan(Source.SCAN, null).run(page);
+    }
+
+    private Plan plan(ExpenseStore snap, ExpenseDateIndex dates, ExpenseKeywordIndex words) {
+        int n = snap.size();
+        long lo = from == null ? Long.MIN_VALUE : from.toEpochDay();
+        long hi = to == null ? Long.MAX_VALUE : to.toEpochDay();
+        // both estimates are upper bounds that may include rows appended after the snapshot
+        int byDate = from == null && to == null ? Integer.MAX_VALUE : dates.count(lo, hi);
+        int byWord = keyword == null ? Integer.MAX_VALUE : words.estimate(keyword);
+        if (byDate < n && byDate <= byWord) {
+            return new Plan(Source.DATE_INDEX, dates.range(from == null ? LocalDate.MIN : from, to == null ? LocalDate.MAX : to, n));
+        }
+        if (byWord < n) return new Plan(Source.KEYWORD_INDEX, words.search(keyword, snap));
+        return new Plan(Source.SCAN, null);
+    }
+
+    /** A chosen candidate source plus the predicates it leaves to check. */
+    private final class Plan {
+        final Source source;
+        final IntList candidates; // null = every row
+
+        Plan(Source source, IntList candidates) {
+            this.source = source;
+            this.candidates = candidates;
+        }
+
+        IntList run(ExpenseStore store) {
+            boolean[] categories = categoryMask(store);
+            if (categories != null && !any(categories)) return new IntList();
+            int n = candidates == null ? store.size() : candidates.size();
+            IntList out;
+            if (n < PARALLEL_THRESHOLD) {
+                out = filter(store, categories, 0, n);
+            } else {
+                // contiguous chunks, concatenated in chunk order, so the output order matches a sequential pass
+                int chunks = (n + CHUNK - 1) / CHUNK;
+                IntList[] parts = IntStream.range(0, chunks).parallel()
+                        .mapToObj(c -> filter(store, categories, c * CHUNK, Math.min(n, (c + 1) * CHUNK)))
+                        .toArray(IntList[]::new);
+                out = new IntList(n);
+                for (IntList p : parts) out.addAll(p);
+            }
+            return source == Source.DATE_INDEX ? out : byDate(store, out);
+        }
+
+        private IntList filter(ExpenseStore store, boolean[] categories, int start, int end) {
+            boolean checkDays = source != Source.DATE_INDEX && (from != null || to != null);
+            boolean checkAmounts = minAmount != Double.NEGATIVE_INFINITY || maxAmount != Double.POSITIVE_INFINITY;
+            boolean checkWords = source != Source.KEYWORD_INDEX && keyword != null;
+            long lo = from == null ? Long.MIN_VALUE : from.toEpochDay();
+            long hi = to == null ? Long.MAX_VALUE : to.toEpochDay();
+            IntList out = new IntList();
+            for (int i = start; i < end; i++) {
+                int r = candidates == null ? i : candidates.get(i);
+                if (categories != null && !categories[store.categoryId(r)]) continue;
+                if (checkDays) {
+                    int day = store.epochDay(r);
+                    if (day < lo || day > hi) continue;
+                }
+                if (checkAmounts) {
+                    long c = store.cents(r);
+                    if (c < minCents || c > maxCents) continue;
+                }
+                if (checkWords && !ExpenseKeywordIndex.matches(store, r, keyword)) continue;
+                out.add(r);
+            }
+            return out;
+        }
+    }
+
+    // one flag per dictionary entry, so rows compare a short id instead of a string
+    private boolean[] categoryMask(ExpenseStore store) {
+        if (category == null) return null;
+        List<String> dict = store.categoryDictionary();
+        boolean[] keep = new boolean[dict.size()];
+        for (int i = 0; i < keep.length; i++) keep[i] = dict.get(i).equalsIgnoreCase(category);
+        return keep;
+    }
+
+    private static boolean any(boolean[] flags) {
+        for (boolean f : flags) if (f) return true;
+        return false;
+    }
+
+    // stable sort by day: pack (day, row) into one long so equal days keep row order
+    private static IntList byDate(ExpenseStore store, IntList rows) {
+        int n = rows.size();
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            int r = rows.get(i);
+            keys[i] = ((long) store.epochDay(r) << 32) | r;
+        }
+        if (n >= PARALLEL_THRESHOLD) Arrays.parallelSort(keys);
+        else Arrays.sort(keys);
+        IntList out = new IntList(Math.max(8, n));
+        for (long k : keys) out.add((int) k);
+        return out;
+    }
+
+    /* ------------ Results ------------ */
+
+    /**
+     * Query result. The in-memory rows are matched up front; months on disk are paged in and
+     * filtered one at a time as iteration reaches them, and merged in by date (history first on
+     * ties, as the date walks order them).
+     */
+    static final class Result implements Iterable<Expense> {
+        private final ExpenseQuery query;
+        private final ExpenseStore snap;
+        private final IntList recent;
+        private final ExpensePager pager; // null when every row is in memory
+        private final Source source;
+
+        Result(ExpenseQuery query, ExpenseStore snap, ExpensePager pager, ExpenseDateIndex dates, ExpenseKeywordIndex words) {
+            Plan plan = query.plan(snap, dates, words);
+            this.query = query;
+            this.snap = snap;
+            this.recent = plan.run(snap);
+            this.pager = pager;
+            this.source = plan.source;
+        }
+
+        Source source() { return source; }
+
+        /** Matching row ids of the snapshot, in date order. */
+        IntList recentRows() { return recent; }
+
+        /** Size of the snapshot the result was computed on. */
+        int snapshotSize() { return snap.size(); }
+
+        /** Matches among the rows in memory; the history on disk is not counted. */
+        int recentCount() { return recent.size(); }
+
+        /** Every match, paging through the history on disk if there is one. */
+        int count() {
+            int n = recent.size();
+            if (pager != null) {
+                for (int month : pager.months(query.from, query.to)) n += query.rows(pager.page(month)).size();
+            }
+            return n;
+        }
+
+        /** Up to {@code limit} matches starting at {@code offset}, stopping as soon as the page is full. */
+        List<Expense> page(int offset, int limit) {
+            List<Expense> out = new ArrayList<>(Math.min(limit, 1024));
+            Iterator<Expense> it = iterator();
+            for (int i = 0; i < offset && it.hasNext(); i++) it.next();
+            while (out.size() < limit && it.hasNext()) out.add(it.next());
+            return out;
+        }
+
+        @Override
+        public Iterator<Expense> iterator() {
+            return new Iterator<Expense>() {
+                private final Iterator<Integer> months = pager == null
+                        ? Collections.emptyIterator() : pager.months(query.from, query.to).iterator();
+                private ExpenseStore page;
+                private IntList pageRows = new IntList();
+                private int pagePos;
+                private int recentPos;
+
+                @Override
+                public boolean hasNext() {
+                    fill();
+                    return pagePos < pageRows.size() || recentPos < recent.size();
+                }
+
+                @Override
+                public Expense next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    boolean fromPage = pagePos < pageRows.size() && (recentPos == recent.size()
+                            || page.epochDay(pageRows.get(pagePos)) <= snap.epochDay(recent.get(recentPos)));
+                    return fromPage ? page.get(pageRows.get(pagePos++)) : snap.get(recent.get(recentPos++));
+                }
+
+                // pull the next month with matches once the current one is used up
+                private void fill() {
+                    while (pagePos == pageRows.size() && months.hasNext()) {
+                        page = pager.page(months.next());
+                        pageRows = query.rows(page);
+                        pagePos = 0;
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,281 @@
+import javax.swing.*;
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Fixed-width text renderer for reports.
+ *
+ * Cells go straight into one reusable char buffer: text is padded in place, amounts are written
+ * as fixed point from a scaled long and dates as ISO digits from the epoch day, so no Formatter,
+ * String.format or per-cell String is involved. Full buffers are handed to the sink a block at a
+ * time: the console, a file, a Swing text area (appended on the EDT as blocks arrive, so long
+ * reports show up incrementally) or a StringBuilder.
+ *
+ * Padding works like {@code %-Ns}/{@code %Ns} (never truncates) and {@link #amount} rounds like
+ * {@code %.Nf}, so output matches the printf-based reports it replaces. Sink failures surface as
+ * UncheckedIOException. Not thread-safe; use one writer per report.
+ */
+class ExpenseReportWriter implements Closeable, Flushable {
+    private static final int BLOCK = 8192;
+    private static final long[] POW10 = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000};
+    private static final String RULE = "--------------------------------------------------------------------------------";
+
+    /** Receives the buffer a block at a time; {@code buf} is reused once write returns. */
+    interface Sink {
+        void write(char[] buf, int len) throws IOException;
+
+        default void flush() throws IOException {}
+
+        default void close() throws IOException {}
+    }
+
+    private final Sink sink;
+    private final char[] buf = new char[BLOCK];
+    private final char[] digits = new char[24];
+    private int pos;
+
+    ExpenseReportWriter(Sink sink) {
+        this.sink = sink;
+    }
+
+    /** Standard output; close() flushes but leaves System.out open. */
+    static ExpenseReportWriter console() {
+        String enc = System.getProperty("sun.stdout.encoding");
+        Charset cs = enc != null && Charset.isSupported(enc) ? Charset.forName(enc) : Charset.defaultCharset();
+        Writer out = new OutputStreamWriter(System.out, cs);
+        return new ExpenseReportWriter(new Sink() {
+            @Override public void write(char[] b, int len) throws IOException { out.write(b, 0, len); }
+            @Override public void flush() throws IOException { out.flush(); }
+            @Override public void close() throws IOException { out.flush(); }
+        });
+    }
+
+    /** Creates or truncates {@code file}, UTF-8. */
+    static ExpenseReportWriter file(Path file) throws IOException {
+        Writer out = new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8);
+        return new ExpenseReportWriter(new Sink() {
+            @Override public void write(char[] b, int len) throws IOException { out.write(b, 0, len); }
+            @Override public void flush() throws IOException { out.flush(); }
+            @Override public void close() throws IOException { out.close(); }
+        });
+    }
+
+    static ExpenseReportWriter text(StringBuilder sb) {
+        return new ExpenseReportWriter((b, len) -> sb.append(b, 0, len));
+    }
+
+    /**
+     * Appends each block to {@code area} on the EDT, and to {@code copy} too when it isn't null
+     * (for callers that also want the whole text, e.g. to cache it). May be used off the EDT.
+     */
+    static ExpenseReportWriter textArea(JTextArea area, StringBuilder copy) {
+        return new ExpenseReportWriter((b, len) -> {
+            String block = new String(b, 0, len);
+            if (copy != null) copy.append(block);
+            SwingUtilities.invokeLater(() -> area.append(block));
+        });
+    }
+
+    /* ------------ Raw output ------------ */
+
+    ExpenseReportWriter text(String s) {
+        int n = s.length();
+        for (int i = 0; i < n; ) {
+            if (pos == BLOCK) drain();
+            int k = Math.min(n - i, BLOCK - pos);
+            s.getChars(i, i + k, buf, pos);
+            pos += k;
+            i += k;
+        }
+        return this;
+    }
+
+    ExpenseReportWriter ch(char c) {
+        if (pos == BLOCK) drain();
+        buf[pos++] = c;
+        return this;
+    }
+
+    ExpenseReportWriter repeat(char c, int n) {
+        for (int i = 0; i < n; i++) ch(c);
+        return this;
+    }
+
+    ExpenseReportWriter newline() {
+        return ch('\n');
+    }
+
+    /* ------------ Cells ------------ */
+
+    /** {@code %-<width>s} */
+    ExpenseReportWriter left(String s, int width) {
+        text(s);
+        return repeat(' ', width - s.length());
+    }
+
+    /** {@code %<width>s} */
+    ExpenseReportWriter right(String s, int width) {
+        repeat(' ', width - s.length());
+        return text(s);
+    }
+
+    /** {@code %<width>d} */
+    ExpenseReportWriter integer(long v, int width) {
+        if (v == Long.MIN_VALUE) return right(Long.toString(v), width);
+        int start = digits.length;
+        long a = Math.abs(v);
+        do {
+            digits[--start] = (char) ('0' + a % 10);
+            a /= 10;
+        } while (a != 0);
+        if (v < 0) digits[--start] = '-';
+        return cell(start, width);
+    }
+
+    /** {@code %.<decimals>f} (decimals 0..6) */
+    ExpenseReportWriter amount(double v, int decimals) {
+        return amount(v, decimals, 0);
+    }
+
+    /** {@code %<width>.<decimals>f} (decimals 0..6); a negative width left-justifies, like {@code %-12.2f}. */
+    ExpenseReportWriter amount(double v, int decimals, int width) {
+        long pow = POW10[decimals];
+        double x = Math.abs(v) * pow;
+        if (!(x < 1e12)) {
+            // NaN, infinities and values too large for the ulp nudge below; rare enough for the slow path
+            String s = Double.isNaN(v) || Double.isInfinite(v) ? Double.toString(v)
+                    : new BigDecimal(Double.toString(v)).setScale(decimals, RoundingMode.HALF_UP).toPlainString();
+            return width < 0 ? left(s, -width) : right(s, width);
+        }
+        // one ulp up so values like 1.005 (1.00499.. in binary) round up, as Formatter does from the shortest decimal
+        long scaled = Math.round(x + Math.ulp(x));
+        int start = digits.length;
+        for (int i = 0; i < decimals; i++) {
+            digits[--start] = (char) ('0' + scaled % 10);
+            scaled /= 10;
+        }
+        if (decimals > 0) digits[--start] = '.';
+        do {
+            digits[--start] = (char) ('0' + scaled % 10);
+            scaled /= 10;
+        } while (scaled != 0);
+        if (v < 0 || (v == 0 && 1 / v < 0)) digits[--start] = '-';
+        return cell(start, width);
+    }
+
+    /** Exact cents as {@code %<width>.2f}; a negative width left-justifies. */
+    ExpenseReportWriter money(long cents, int width) {
+        int start = digits.length;
+        long a = Math.abs(cents);
+        digits[--start] = (char) ('0' + a % 10);
+        digits[--start] = (char) ('0' + a / 10 % 10);
+        digits[--start] = '.';
+        a /= 100;
+        do {
+            digits[--start] = (char) ('0' + a % 10);
+            a /= 10;
+        } while (a != 0);
+        if (cents < 0) digits[--start] = '-';
+        return cell(start, width);
+    }
+
+    /** ISO yyyy-MM-dd, right-aligned in {@code width}. */
+    ExpenseReportWriter date(long epochDay, int width) {
+        // civil-from-days (proleptic Gregorian), as LocalDate.ofEpochDay computes it
+        long z = epochDay + 719_468;
+        long era = (z >= 0 ? z : z - 146_096) / 146_097;
+        long doe = z - era * 146_097;
+        long yoe = (doe - doe / 1460 + doe / 36_524 - doe / 146_096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long year = yoe + era * 400 + (mp >= 10 ? 1 : 0);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        if (year < 0 || year > 9999) return right(java.time.LocalDate.ofEpochDay(epochDay).toString(), width);
+        repeat(' ', width - 10);
+        two((int) (year / 100));
+        two((int) (year % 100));
+        ch('-');
+        two(month);
+        ch('-');
+        return two(day);
+    }
+
+    private ExpenseReportWriter two(int v) {
+        ch((char) ('0' + v / 10));
+        return ch((char) ('0' + v % 10));
+    }
+
+    // digits[start..] padded to |width|, on the left for a positive width and on the right for a negative one
+    private ExpenseReportWriter cell(int start, int width) {
+        int len = digits.length - start;
+        repeat(' ', width - len);
+        for (int i = start; i < digits.length; i++) ch(digits[i]);
+        return repeat(' ', -width - len);
+    }
+
+    /* ------------ Expense tables ------------ */
+
+    /** Column header and rule of the expense tables. */
+    ExpenseReportWriter header() {
+        left("Name", 15).ch(' ').left("Category", 15).ch(' ').right("Amount", 10).ch(' ')
+                .right("Date", 12).ch(' ').left("Notes", 20).newline();
+        return text(RULE).newline();
+    }
+
+    ExpenseReportWriter row(Expense e) {
+        return row(e.getName(), e.getCategory(), e.getCents(), e.getDate().toEpochDay(), e.getNotes());
+    }
+
+    /** Row {@code r} read straight from the columns, without materializing an Expense. */
+    ExpenseReportWriter row(ExpenseStore store, int r) {
+        return row(store.name(r), store.category(r), store.cents(r), store.epochDay(r), store.notes(r));
+    }
+
+    private ExpenseReportWriter row(String name, String category, long cents, long epochDay, String notes) {
+        left(name, 15).ch(' ').left(category, 15).ch(' ').money(cents, 10).ch(' ');
+        return date(epochDay, 12).ch(' ').left(notes, 20).newline();
+    }
+
+    /** A bar of '#' marks, scaled so that {@code max} gets {@code width} of them. */
+    ExpenseReportWriter bar(double value, double max, int width) {
+        return repeat('#', Math.max(0, (int) ((value / max) * width)));
+    }
+
+    /* ------------ Flushing ------------ */
+
+    private void drain() {
+        if (pos == 0) return;
+        try {
+            sink.write(buf, pos);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        pos = 0;
+    }
+
+    @Override
+    public void flush() {
+        drain();
+        try {
+            sink.flush();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        drain();
+        try {
+            sink.close();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Bounded LRU cache for query results and rendered reports.
+ *
+ * Every entry has a scope: the {@link ExpenseQuery} its value was computed from. Each new row
+ * drops exactly the entries whose scope it matches, so an insert dated March 2026 in Food leaves
+ * a February report or a Transport search cached. Rows never change once stored, so inserts are
+ * the only invalidation. Entries are evicted least-recently-used once their estimated size passes
+ * {@link ExpenseConfig#resultCacheBytes()}. Hits, misses, evictions and invalidations are counted
+ * in {@link ExpenseMetrics}.
+ *
+ * A value computed while rows were being added may already be stale by the time it is stored, so
+ * {@link #put} only takes it if no row past the snapshot it was computed from has been seen. Callers
+ * pass that snapshot's size: rows are indexed (and seen here) before readers can see them, so the
+ * count of rows seen can run ahead of any snapshot and is no stamp on its own.
+ */
+class ExpenseResultCache {
+
+    private static final class Entry {
+        final ExpenseQuery scope;
+        final Object value;
+        final long bytes;
+
+        Entry(ExpenseQuery scope, Object value, long bytes) {
+            this.scope = scope;
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // access order
+    private long bytes;
+    private int rowsSeen; // rows passed to invalidate(); equals the store size once they are indexed
+
+    ExpenseResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** The cached value, or null (counted as a miss). */
+    synchronized Object get(Object key) {
+        Entry e = entries.get(key);
+        ExpenseMetrics.global().add(e == null ? ExpenseMetrics.Counter.CACHE_MISSES : ExpenseMetrics.Counter.CACHE_HITS, 1);
+        return e == null ? null : e.value;
+    }
+
+    /**
+     * Caches {@code value}, computed from the first {@code rows} rows, unless a row after those
+     * has been seen (it might have changed the value) or the value alone is over budget.
+     */
+    synchronized void put(Object key, ExpenseQuery scope, Object value, long valueBytes, int rows) {
+        if (value == null || rowsSeen > rows || valueBytes > maxBytes) return;
+        Entry old = entries.put(key, new Entry(scope, value, valueBytes));
+        if (old != null) bytes -= old.bytes;
+        bytes += valueBytes;
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            bytes -= eldest.bytes;
+            ExpenseMetrics.global().add(ExpenseMetrics.Counter.CACHE_EVICTIONS, 1);
+        }
+    }
+
+    /**
+     * {@link #get}, or compute, {@link #put} and return the value; null values are not cached.
+     * {@code rows} is the size of a snapshot taken before computing; the value may see later rows.
+     */
+    <T> T computeIfAbsent(Object key, ExpenseQuery scope, int rows, Supplier<T> compute, ToLongFunction<T> weigh) {
+        @SuppressWarnings("unchecked") // every entry under a key is put by this method with the same T
+        T value = (T) get(key);
+        if (value != null) return value;
+        value = compute.get();
+        if (value != null) put(key, scope, value, weigh.applyAsLong(value), rows);
+        return value;
+    }
+
+    /** Drops the entries row {@code r} of {@code store} falls in; called for every row as it is indexed. */
+    synchronized void invalidate(ExpenseStore store, int r) {
+        rowsSeen = Math.max(rowsSeen, r + 1);
+        if (entries.isEmpty()) return;
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (e.scope.matches(store, r)) {
+                it.remove();
+                bytes -= e.bytes;
+                ExpenseMetrics.global().add(ExpenseMetrics.Counter.CACHE_INVALIDATIONS, 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Per-day time-series rollups per category.
+ *
+ * Each category keeps primitive per-day sum (in cents)/count arrays plus Fenwick trees (prefix sums that
+ * also accept out-of-order dates), so any date-range total or count is O(log n) and
+ * week/month/quarter/year buckets or moving averages cost O(log n) per point rather than a scan.
+ * Days outside 1900-2199 (a mistyped year such as 0226 or 10000) go to a small sorted map
+ * instead, so one stray date can't stretch the arrays over thousands of years.
+ */
+class ExpenseRollups {
+
+    enum Granularity { DAY, WEEK, MONTH, QUARTER, YEAR }
+
+    /** One bucket of a trend: [start, end] inclusive. */
+    static final class Bucket {
+        final LocalDate start;
+        final LocalDate end;
+        final double sum;
+        final long cents;
+        final long count;
+
+        Bucket(LocalDate start, LocalDate end, long cents, long count) {
+            this.start = start;
+            this.end = end;
+            this.sum = ExpenseMoney.toAmount(cents);
+            this.cents = cents;
+            this.count = count;
+        }
+    }
+
+    private static final int MIN_SPAN = 366;
+    private static final int DENSE_FROM = (int) LocalDate.of(1900, 1, 1).toEpochDay();
+    private static final int DENSE_TO = (int) LocalDate.of(2200, 1, 1).toEpochDay(); // exclusive
+
+    /** Day-indexed columns for one category; index 0 is epoch day {@code base}. */
+    private static final class Series {
+        int base;
+        long[] daySum = new long[0];
+        int[] dayCount = new int[0];
+        long[] sumTree = new long[1];  // Fenwick, 1-based
+        long[] countTree = new long[1];
+        final TreeMap<Integer, long[]> farDays = new TreeMap<>(); // {cents, count} per day outside the dense range
+
+        void add(int day, long cents) {
+            if (day < DENSE_FROM || day >= DENSE_TO) {
+                long[] cell = farDays.computeIfAbsent(day, k -> new long[2]);
+                cell[0] += cents;
+                cell[1]++;
+                return;
+            }
+            if (daySum.length == 0 || day < base || day >= base + daySum.length) rebase(day);
+            int i = day - base;
+            daySum[i] += cents;
+            dayCount[i]++;
+            for (int j = i + 1; j < sumTree.length; j += j & -j) {
+                sumTree[j] += cents;
+                countTree[j]++;
+            }
+        }
+
+        // Grows the covered span (at least doubling) so it includes day, then rebuilds the trees in O(n)
+        private void rebase(int day) {
+            int len = daySum.length;
+            int lo = len == 0 ? day : Math.min(base, day);
+            int hi = len == 0 ? day : Math.max(base + len - 1, day);
+            int pad = Math.max(MIN_SPAN, len);
+            int newBase = day < base || len == 0 ? lo - pad : lo;
+            int newLen = (hi - newBase + 1) + (day >= base + len || len == 0 ? pad : 0);
+            long[] sums = new long[newLen];
+            int[] counts = new int[newLen];
+            if (len > 0) {
+                System.arraycopy(daySum, 0, sums, base - newBase, len);
+                System.arraycopy(dayCount, 0, counts, base - newBase, len);
+            }
+            base = newBase;
+            daySum = sums;
+            dayCount = counts;
+            sumTree = new long[newLen + 1];
+            countTree = new long[newLen + 1];
+            for (int i = 1; i <= newLen; i++) {
+                sumTree[i] += sums[i - 1];
+                countTree[i] += counts[i - 1];
+                int parent = i + (i & -i);
+                if (parent <= newLen) {
+                    sumTree[parent] += sumTree[i];
+                    countTree[parent] += countTree[i];
+                }
+            }
+        }
+
+        /** Cents over days [from, to], clamped to the covered span. */
+        long sum(int from, int to) {
+            return prefixSum(to) - prefixSum(from - 1) + far(from, to, 0);
+        }
+
+        long count(int from, int to) {
+            return prefixCount(to) - prefixCount(from - 1) + far(from, to, 1);
+        }
+
+        private long far(int from, int to, int column) {
+            if (farDays.isEmpty()) return 0;
+            long s = 0;
+            for (long[] cell : farDays.subMap(from, true, to, true).values()) s += cell[column];
+            return s;
+        }
+
+        private long prefixSum(int day) {
+            int i = Math.min(day - base + 1, daySum.length);
+            long s = 0;
+            for (; i > 0; i -= i & -i) s += sumTree[i];
+            return s;
+        }
+
+        private long prefixCount(int day) {
+            int i = Math.min(day - base + 1, daySum.length);
+            long c = 0;
+            for (; i > 0; i -= i & -i) c += countTree[i];
+            return c;
+        }
+    }
+
+    private final Map<String, Series> byCategory = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    void add(String category, long cents, int epochDay) {
+        lock.writeLock().lock();
+        try {
+            byCategory.computeIfAbsent(category, k -> new Series()).add(epochDay, cents);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /* ------------ Range queries ------------ */
+
+    /** Total spend in [from, to]; {@code category} null means all, otherwise matched ignoring case. */
+    double sum(String category, LocalDate from, LocalDate to) {
+        return ExpenseMoney.toAmount(cents(category, from, to));
+    }
+
+    /** {@link #sum} in exact cents. */
+    long cents(String category, LocalDate from, LocalDate to) {
+        int f = (int) from.toEpochDay(), t = (int) to.toEpochDay();
+        if (f > t) return 0;
+        lock.readLock().lock();
+        try {
+            long s = 0;
+            for (Map.Entry<String, Series> en : byCategory.entrySet()) {
+                if (category == null || en.getKey().equalsIgnoreCase(category)) s += en.getValue().sum(f, t);
+            }
+            return s;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long count(String category, LocalDate from, LocalDate to) {
+        int f = (int) from.toEpochDay(), t = (int) to.toEpochDay();
+        if (f > t) return 0;
+        lock.readLock().lock();
+        try {
+            long c = 0;
+            for (Map.Entry<String, Series> en : byCategory.entrySet()) {
+                if (category == null || en.getKey().equalsIgnoreCase(category)) c += en.getValue().count(f, t);
+            }
+            return c;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Calendar buckets covering [from, to]; the first and last bucket are clipped to the range. Empty if from is after to. */
+    List<Bucket> trend(String category, LocalDate from, LocalDate to, Granularity g) {
+        List<Bucket> out = new ArrayList<>();
+        if (from.isAfter(to)) return out;
+        LocalDate start = bucketStart(from, g);
+        while (!start.isAfter(to)) {
+            LocalDate next = nextBucket(start, g);
+            LocalDate s = start.isBefore(from) ? from : start;
+            LocalDate e = next.minusDays(1).isAfter(to) ? to : next.minusDays(1);
+            out.add(new Bucket(s, e, cents(category, s, e), count(category, s, e)));
+            start = next;
+        }
+        return out;
+    }
+
+    /** Trailing {@code window}-day average of daily spend for each day in [from, to]; the window must be at least 1. */
+    double[] movingAverage(String category, LocalDate from, LocalDate to, int window) {
+        if (window < 1) throw new IllegalArgumentException("window must be at least 1 day");
+        int days = (int) (to.toEpochDay() - from.toEpochDay() + 1);
+        double[] out = new double[Math.max(0, days)];
+        for (int i = 0; i < out.length; i++) {
+            LocalDate day = from.plusDays(i);
+            out[i] = sum(category, day.minusDays(window - 1), day) / window;
+        }
+        return out;
+    }
+
+    static LocalDate bucketStart(LocalDate d, Granularity g) {
+        switch (g) {
+            case WEEK: return d.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MONTH: return d.withDayOfMonth(1);
+            case QUARTER: return LocalDate.of(d.getYear(), (d.getMonthValue() - 1) / 3 * 3 + 1, 1);
+            case YEAR: return d.withDayOfYear(1);
+            default: return d;
+        }
+    }
+
+    private static LocalDate nextBucket(LocalDate start, Granularity g) {
+        switch (g) {
+            case WEEK: return start.plusWeeks(1);
+            case MONTH: return start.plusMonths(1);
+            case QUARTER: return start.plusMonths(3);
+            case YEAR: return start.plusYears(1);
+            default: return start.plusDays(1);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Column-oriented, append-only expense storage.
+ *
+ * Amounts (as long cents, see {@link ExpenseMoney}) and epoch days live in primitive arrays, categories are dictionary-encoded into a
+ * short per row, and names/notes go through a string pool so repeated values share one instance.
+ * Rows are exposed as a read-only {@code List<Expense>}; {@link #get(int)} materializes an
+ * Expense on demand while the report paths read the columns directly.
+ *
+ * Appends are serialized; every append publishes a new immutable {@link Cols} through a volatile
+ * field. Rows below a published size are never written again, so readers get a consistent
+ * snapshot without locking and never block the writer. Bulk paths (loads, imports, batches,
+ * pages) use {@link #appendUnpublished} and {@link #publish()} once per batch or chunk instead,
+ * so they don't allocate a view per row.
+ */
+class ExpenseStore extends AbstractList<Expense> implements RandomAccess {
+
+    /** Published view of the columns; valid for rows [0, size). */
+    private static final class Cols {
+        final long[] cents;
+        final int[] days;
+        final short[] categoryIds;
+        final String[] names;
+        final String[] notes;
+        final String[] dict;
+        final int size;
+
+        Cols(long[] cents, int[] days, short[] categoryIds, String[] names, String[] notes, String[] dict, int size) {
+            this.cents = cents;
+            this.days = days;
+            this.categoryIds = categoryIds;
+            this.names = names;
+            this.notes = notes;
+            this.dict = dict;
+            this.size = size;
+        }
+    }
+
+    private volatile Cols cols;
+    private final boolean readOnly;
+
+    // writer-side state, only touched inside append()
+    private long[] cents;
+    private int[] days;
+    private short[] categoryIds;
+    private String[] names;
+    private String[] notes;
+    private String[] dict;
+    private int size;
+    private final Map<String, Integer> categoryLookup = new HashMap<>();
+    private final Map<String, String> pool = new HashMap<>();
+
+    ExpenseStore() {
+        this(64);
+    }
+
+    ExpenseStore(int capacity) {
+        cents = new long[capacity];
+        days = new int[capacity];
+        categoryIds = new short[capacity];
+        names = new String[capacity];
+        notes = new String[capacity];
+        dict = new String[0];
+        readOnly = false;
+        publish();
+    }
+
+    private ExpenseStore(Cols frozen) {
+        cols = frozen;
+        readOnly = true;
+    }
+
+    /* ------------ Writes ------------ */
+
+    synchronized int append(String name, String category, long amountCents, int epochDay, String note) {
+        int row = appendUnpublished(name, category, amountCents, epochDay, note);
+        publish();
+        return row;
+    }
+
+    /**
+     * {@link #append} without publishing: nothing reads the row, not even {@link #size()}, until
+     * the next {@link #publish()} or plain append.
+     */
+    synchronized int appendUnpublished(String name, String category, long amountCents, int epochDay, String note) {
+        if (readOnly) throw new UnsupportedOperationException("snapshot is read-only");
+        if (size == cents.length) grow();
+        int row = size;
+        cents[row] = amountCents;
+        days[row] = epochDay;
+        categoryIds[row] = categoryId(category);
+        names[row] = intern(name);
+        notes[row] = intern(note == null ? "" : note);
+        size++;
+        return row;
+    }
+
+    @Override
+    public boolean add(Expense e) {
+        append(e.getName(), e.getCategory(), e.getCents(), (int) e.getDate().toEpochDay(), e.getNotes());
+        return true;
+    }
+
+    /** Makes every row appended so far visible to readers. */
+    synchronized void publish() {
+        cols = new Cols(cents, days, categoryIds, names, notes, dict, size);
+    }
+
+    private void grow() {
+        int cap = cents.length * 2;
+        cents = Arrays.copyOf(cents, cap);
+        days = Arrays.copyOf(days, cap);
+        categoryIds = Arrays.copyOf(categoryIds, cap);
+        names = Arrays.copyOf(names, cap);
+        notes = Arrays.copyOf(notes, cap);
+    }
+
+    private short categoryId(String category) {
+        Integer id = categoryLookup.get(category);
+        if (id == null) {
+            if (dict.length == Short.MAX_VALUE) throw new IllegalStateException("Too many categories");
+            id = dict.length;
+            dict = Arrays.copyOf(dict, dict.length + 1); // copy-on-write, readers keep the old one
+            dict[id] = category;
+            categoryLookup.put(category, id);
+        }
+        return id.shortValue();
+    }
+
+    private String intern(String s) {
+        String pooled = pool.putIfAbsent(s, s);
+        return pooled == null ? s : pooled;
+    }
+
+    /** O(1) frozen view of the rows stored so far; later appends never show up in it. */
+    ExpenseStore snapshot() {
+        return new ExpenseStore(cols);
+    }
+
+    /* ------------ Column reads ------------ */
+
+    @Override public int size() { return cols.size; }
+
+    double amount(int row) { return ExpenseMoney.toAmount(cols.cents[row]); }
+    long cents(int row) { return cols.cents[row]; }
+    /** Sum of every row's cents, with the vectorized column kernel. */
+    long totalCents() { Cols c = cols; return ExpenseMoney.sum(c.cents, 0, c.size); }
+    int epochDay(int row) { return cols.days[row]; }
+    LocalDate date(int row) { return LocalDate.ofEpochDay(cols.days[row]); }
+    int categoryId(int row) { return cols.categoryIds[row]; }
+    String category(int row) { Cols c = cols; return c.dict[c.categoryIds[row]]; }
+    String name(int row) { return cols.names[row]; }
+    String notes(int row) { return cols.notes[row]; }
+
+    List<String> categoryDictionary() { return Collections.unmodifiableList(Arrays.asList(cols.dict)); }
+
+    @Override
+    public Expense get(int row) {
+        Cols c = cols;
+        Objects.checkIndex(row, c.size);
+        return Expense.ofCents(c.names[row], c.dict[c.categoryIds[row]], c.cents[row],
+                LocalDate.ofEpochDay(c.days[row]), c.notes[row]);
+    }
+}
@@ -0,0 +1,299 @@
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Table model that reads cells straight from a column-store snapshot instead of copying rows.
+ *
+ * In store order an append only swaps in the newer snapshot and fires rowsInserted. Sorting
+ * and filtering produce a row-id permutation (the "view"): an {@link ExpenseQuery} picks the
+ * matching rows in date order through the manager's indexes, and any other order is a primitive
+ * index sort, so JTable never sorts strings itself. Formatted amounts
+ * and dates are cached per store row in a small direct-mapped cache, since rows never change.
+ *
+ * In lazy mode the months left on disk come first in store order, as getAllExpenses lists them:
+ * each is paged in through the {@link ExpensePager} on a background thread once it scrolls into
+ * view, so the EDT never waits on the disk. Its rows show a placeholder until then and are
+ * repainted with rowsUpdated; only the months in the viewport are held here. A sorted or
+ * filtered view copies its matches, history included, into a store of its own.
+ */
+class ExpenseTableModel extends AbstractTableModel {
+    private static final int CACHE = 1024; // power of two, comfortably more than a screenful
+
+    private final String[] cols = {"Name","Category","Amount","Date","Notes"};
+    private ExpenseStore rows = new ExpenseStore().snapshot();
+    private int[] view;           // view row -> store row; null means store order
+
+    // months on disk shown ahead of the store in store order; no months unless loaded lazily
+    private ExpensePager history;
+    private Executor pageLoader;
+    private int[] monthKeys = new int[0];
+    private int[] monthStarts = {0}; // first table row of each month; the last entry is the history size
+    private final Map<Integer, ExpenseStore> pinned = new HashMap<>(); // month index -> page, viewport only
+    private final Set<Integer> paging = new HashSet<>();               // month indexes queued on pageLoader
+    private volatile int firstWanted = 0, lastWanted = -1;             // month indexes in the viewport
+
+    private int sortColumn = -1;
+    private boolean ascending = true;
+    private ExpenseQuery filter = ExpenseQuery.all();
+
+    private final int[] cachedRow = new int[CACHE];
+    private final String[] cachedAmount = new String[CACHE];
+    private final String[] cachedDate = new String[CACHE];
+
+    ExpenseTableModel() {
+        Arrays.fill(cachedRow, -1);
+    }
+
+    /* ------------ Sort / filter state (EDT) ------------ */
+
+    boolean isStoreOrder() {
+        return sortColumn < 0 && filter.isAll();
+    }
+
+    /** Clicking the same column again flips the direction. */
+    void toggleSort(int column) {
+        if (column == sortColumn) ascending = !ascending;
+        else {
+            sortColumn = column;
+            ascending = true;
+        }
+    }
+
+    void setFilter(ExpenseQuery filter) {
+        this.filter = filter;
+    }
+
+    ViewSpec spec() {
+        return new ViewSpec(sortColumn, ascending, filter);
+    }
+
+    /** Shows {@code pager}'s months (null for none) ahead of the store in store order, paging them in on {@code loader}. */
+    void setHistory(ExpensePager pager, Executor loader) {
+        history = pager;
+        pageLoader = loader;
+        pinned.clear();
+        paging.clear();
+        firstWanted = 0;
+        lastWanted = -1;
+        List<Integer> months = pager == null ? List.of() : pager.months(null, null);
+        monthKeys = new int[months.size()];
+        monthStarts = new int[months.size() + 1];
+        for (int i = 0; i < monthKeys.length; i++) {
+            monthKeys[i] = months.get(i);
+            monthStarts[i + 1] = monthStarts[i] + pager.monthSize(monthKeys[i]);
+        }
+        forget();
+        fireTableDataChanged();
+    }
+
+    /** Table rows {@code first..last} are on screen: pages in their history months and lets go of the rest. */
+    void setVisibleRows(int first, int last) {
+        int historyRows = view == null ? offset() : 0;
+        if (first < 0 || first >= historyRows) {
+            firstWanted = 0;
+            lastWanted = -1;
+        } else {
+            firstWanted = month(first);
+            lastWanted = month(Math.min(Math.max(first, last), historyRows - 1));
+        }
+        pinned.keySet().removeIf(m -> !wanted(m));
+        for (int m = firstWanted; m <= lastWanted; m++) {
+            if (!pinned.containsKey(m)) pageIn(m);
+        }
+    }
+
+    private boolean wanted(int m) {
+        return m >= firstWanted && m <= lastWanted;
+    }
+
+    // decodes month m on the page loader, then repaints its rows; months scrolled past meanwhile are skipped
+    private void pageIn(int m) {
+        if (!paging.add(m)) return;
+        ExpensePager pager = history;
+        int key = monthKeys[m];
+        pageLoader.execute(() -> {
+            ExpenseStore page = wanted(m) ? pager.page(key) : null;
+            SwingUtilities.invokeLater(() -> {
+                paging.remove(m);
+                if (pager != history) return;
+                if (page == null) {
+                    if (wanted(m)) pageIn(m); // scrolled back before the skip
+                } else if (wanted(m)) {
+                    pinned.put(m, page);
+                    if (view == null) fireTableRowsUpdated(monthStarts[m], monthStarts[m + 1] - 1);
+                }
+            });
+        });
+    }
+
+    /* ------------ Data updates (EDT) ------------ */
+
+    /** Shows {@code snap} in store order; growth since the last call is reported as inserted rows. */
+    void showStoreOrder(ExpenseStore snap) {
+        int old = getRowCount();
+        boolean hadView = view != null;
+        rows = snap;
+        view = null;
+        if (hadView) forget(); // the view's rows were a copy, numbered differently
+        int now = getRowCount();
+        if (hadView || now < old) fireTableDataChanged();
+        else if (now > old) fireTableRowsInserted(old, now - 1);
+    }
+
+    void setView(View v) {
+        rows = v.rows;
+        view = v.ids;
+        forget();
+        fireTableDataChanged();
+    }
+
+    // rows before the store's own: the months on disk, in store order only
+    private int offset() {
+        return view == null ? monthStarts[monthStarts.length - 1] : 0;
+    }
+
+    private void forget() {
+        Arrays.fill(cachedRow, -1);
+    }
+
+    // index of the history month holding table row id
+    private int month(int id) {
+        int m = Arrays.binarySearch(monthStarts, id);
+        return m < 0 ? -m - 2 : m;
+    }
+
+    @Override public int getRowCount() { return view == null ? offset() + rows.size() : view.length; }
+    @Override public int getColumnCount() { return cols.length; }
+    @Override public String getColumnName(int c) { return cols[c]; }
+    @Override public Object getValueAt(int r, int c) {
+        int id = view == null ? r : view[r];
+        int offset = offset();
+        ExpenseStore store = rows;
+        int row = id - offset;
+        if (id < offset) {
+            int m = month(id);
+            store = pinned.get(m);
+            if (store == null) {
+                pageIn(m);
+                return c == 0 ? "Loading..." : ""; // repainted by rowsUpdated once the month is in
+            }
+            row = id - monthStarts[m];
+            if (row >= store.size()) return ""; // the month failed its checksum and was skipped
+        }
+        switch (c) {
+            case 0: return store.name(row);
+            case 1: return store.category(row);
+            case 2: return cachedAmount[slot(id, store, row)];
+            case 3: return cachedDate[slot(id, store, row)];
+            case 4: return store.notes(row);
+        }
+        return "";
+    }
+
+    // formats a row's amount and date once; the slot is reused when another row maps onto it
+    private int slot(int id, ExpenseStore store, int row) {
+        int slot = id & (CACHE - 1);
+        if (cachedRow[slot] != id) {
+            cachedRow[slot] = id;
+            cachedAmount[slot] = ExpenseMoney.format(store.cents(row));
+            cachedDate[slot] = store.date(row).toString();
+        }
+        return slot;
+    }
+
+    /* ------------ View building (any thread) ------------ */
+
+    /** Rows of a sorted or filtered view: ids into {@code rows}, in display order. */
+    static final class View {
+        final ExpenseStore rows;
+        final int[] ids;
+
+        View(ExpenseStore rows, int[] ids) {
+            this.rows = rows;
+            this.ids = ids;
+        }
+    }
+
+    /** Immutable sort/filter request, built on the EDT and evaluated in the background. */
+    static final class ViewSpec {
+        final int sortColumn;
+        final boolean ascending;
+        final ExpenseQuery filter;
+
+        ViewSpec(int sortColumn, boolean ascending, ExpenseQuery filter) {
+            this.sortColumn = sortColumn;
+            this.ascending = ascending;
+            this.filter = filter;
+        }
+
+        View build(ExpenseManager manager, ExpenseStore snap) {
+            int[] ids;
+            boolean dateOrdered;
+            if (manager.history() != null) {
+                // lazy: the matches on disk are paged in and copied alongside the ones in memory
+                snap = manager.queryStore(filter, snap);
+                ids = new int[snap.size()];
+                for (int i = 0; i < ids.length; i++) ids[i] = i;
+                dateOrdered = true;
+            } else if (filter.isAll() && sortColumn != 3) {
+                // no filter: start from store order and let the sort below do the work
+                ids = new int[snap.size()];
+                for (int i = 0; i < ids.length; i++) ids[i] = i;
+                dateOrdered = false;
+            } else {
+                ids = manager.queryRows(filter, snap).toArray(); // query results come in date order
+                dateOrdered = true;
+            }
+
+            if (sortColumn >= 0 && !(dateOrdered && sortColumn == 3)) sort(ids, comparator(snap));
+            if (sortColumn >= 0 && !ascending) reverse(ids);
+            return new View(snap, ids);
+        }
+
+        private IntBinaryOperator comparator(ExpenseStore snap) {
+            switch (sortColumn) {
+                case 0: return (a, b) -> snap.name(a).compareToIgnoreCase(snap.name(b));
+                case 1: {
+                    // rank the few dictionary entries once, then compare ints
+                    List<String> dict = snap.categoryDictionary();
+                    Integer[] order = new Integer[dict.size()];
+                    for (int i = 0; i < order.length; i++) order[i] = i;
+                    Arrays.sort(order, (x, y) -> dict.get(x).compareToIgnoreCase(dict.get(y)));
+                    int[] rank = new int[order.length];
+                    for (int i = 0; i < order.length; i++) rank[order[i]] = i;
+                    return (a, b) -> Integer.compare(rank[snap.categoryId(a)], rank[snap.categoryId(b)]);
+                }
+                case 2: return (a, b) -> Long.compare(snap.cents(a), snap.cents(b));
+                case 3: return (a, b) -> Integer.compare(snap.epochDay(a), snap.epochDay(b));
+                default: return (a, b) -> snap.notes(a).compareToIgnoreCase(snap.notes(b));
+            }
+        }
+    }
+
+    /** Stable merge sort of row ids, so equal keys keep store order and nothing gets boxed. */
+    static void sort(int[] a, IntBinaryOperator cmp) {
+        int[] tmp = new int[a.length];
+        for (int width = 1; width < a.length; width *= 2) {
+            for (int lo = 0; lo < a.length - width; lo += 2 * width) {
+                int mid = lo + width, hi = Math.min(lo + 2 * width, a.length);
+                if (cmp.applyAsInt(a[mid - 1], a[mid]) <= 0) continue; // already in order
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) tmp[k++] = cmp.applyAsInt(a[i], a[j]) <= 0 ? a[i++] : a[j++];
+                while (i < mid) tmp[k++] = a[i++];
+                while (j < hi) tmp[k++] = a[j++];
+                System.arraycopy(tmp, lo, a, lo, hi - lo);
+            }
+        }
+    }
+
+    private static void reverse(int[] a) {
+        for (int i = 0, j = a.length - 1; i < j; i++, j--) {
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Top-N / bottom-N by amount using a bounded heap over primitive arrays.
+ *
+ * Costs O(k log n) for k candidate rows instead of sorting everything, allocates no boxed
+ * keys, and on large inputs scores chunks in parallel on the common pool before merging the
+ * per-chunk heaps. Ties keep store order, like the old stable sort did.
+ */
+class ExpenseTopN {
+    private static final int PARALLEL_THRESHOLD = 200_000;
+    private static final int CHUNK = 64 * 1024;
+
+    /** Min-heap on (key, -row): the root is the weakest of the n best seen so far. */
+    static final class Heap {
+        private final long[] keys;
+        private final int[] rows;
+        private int size;
+
+        Heap(int capacity) {
+            keys = new long[capacity];
+            rows = new int[capacity];
+        }
+
+        void offer(long key, int row) {
+            if (keys.length == 0) return;
+            if (size < keys.length) {
+                keys[size] = key;
+                rows[size] = row;
+                siftUp(size++);
+            } else if (better(key, row, keys[0], rows[0])) {
+                keys[0] = key;
+                rows[0] = row;
+                siftDown(0);
+            }
+        }
+
+        Heap merge(Heap other) {
+            for (int i = 0; i < other.size; i++) offer(other.keys[i], other.rows[i]);
+            return this;
+        }
+
+        /** Row ids from best to worst; empties the heap. */
+        int[] drain() {
+            int[] out = new int[size];
+            for (int i = size - 1; i >= 0; i--) {
+                out[i] = rows[0];
+                size--;
+                keys[0] = keys[size];
+                rows[0] = rows[size];
+                siftDown(0);
+            }
+            return out;
+        }
+
+        private static boolean better(long k1, int r1, long k2, int r2) {
+            int c = Long.compare(k1, k2);
+            return c > 0 || (c == 0 && r1 < r2);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int p = (i - 1) >>> 1;
+                if (!better(keys[p], rows[p], keys[i], rows[i])) break;
+                swap(i, p);
+                i = p;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int l = 2 * i + 1, r = l + 1, worst = i;
+                if (l < size && better(keys[worst], rows[worst], keys[l], rows[l])) worst = l;
+                if (r < size && better(keys[worst], rows[worst], keys[r], rows[r])) worst = r;
+                if (worst == i) return;
+                swap(i, worst);
+                i = worst;
+            }
+        }
+
+        private void swap(int a, int b) {
+            long k = keys[a]; keys[a] = keys[b]; keys[b] = k;
+            int r = rows[a]; rows[a] = rows[b]; rows[b] = r;
+        }
+    }
+
+    /**
+     * Best {@code n} rows of {@code snap} by amount (largest first, or smallest first when
+     * {@code largest} is false). {@code candidates} restricts the scan (e.g. a date window from
+     * the date index); {@code category} (case-insensitive) filters on the dictionary-encoded column.
+     */
+    static int[] select(ExpenseStore snap, int n, boolean largest, String category, IntList candidates) {
+        int size = candidates == null ? snap.size() : candidates.size();
+        int cap = Math.max(0, Math.min(n, size));
+        boolean[] keep = null;
+        if (category != null) {
+            List<String> dict = snap.categoryDictionary();
+            keep = new boolean[dict.size()];
+            for (int i = 0; i < keep.length; i++) keep[i] = dict.get(i).equalsIgnoreCase(category);
+        }
+        boolean[] mask = keep;
+        if (size < PARALLEL_THRESHOLD) return scan(snap, cap, largest, mask, candidates, 0, size).drain();
+        int chunks = (size + CHUNK - 1) / CHUNK;
+        return IntStream.range(0, chunks).parallel()
+                .mapToObj(c -> scan(snap, cap, largest, mask, candidates, c * CHUNK, Math.min(size, (c + 1) * CHUNK)))
+                .reduce(Heap::merge)
+                .orElseGet(() -> new Heap(0))
+                .drain();
+    }
+
+    private static Heap scan(ExpenseStore snap, int cap, boolean largest, boolean[] keep, IntList candidates, int from, int to) {
+        Heap heap = new Heap(cap);
+        for (int i = from; i < to; i++) {
+            int row = candidates == null ? i : candidates.get(i);
+            if (keep != null && !keep[snap.categoryId(row)]) continue;
+            long cents = snap.cents(row);
+            heap.offer(largest ? cents : -cents, row);
+        }
+        return heap;
+    }
+}
@@ -0,0 +1,50 @@
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints, used for row-id postings in the indexes.
+ *
+ * Safe for one writer and any number of readers: the element is stored before the volatile
+ * size is bumped, and a grown array is published before the size that needs it, so a reader
+ * that reads size() first always finds those elements filled in.
+ */
+class IntList {
+    private volatile int[] data;
+    private volatile int size;
+
+    IntList() { this(8); }
+    IntList(int capacity) { data = new int[Math.max(1, capacity)]; }
+
+    void add(int v) {
+        int[] d = data;
+        int n = size;
+        if (n == d.length) data = d = Arrays.copyOf(d, n * 2);
+        d[n] = v;
+        size = n + 1;
+    }
+
+    void addAll(IntList other) {
+        addAllBelow(other, Integer.MAX_VALUE);
+    }
+
+    /** Appends the prefix of a sorted list whose values are below {@code limit}. */
+    void addAllBelow(IntList other, int limit) {
+        int m = other.size;
+        int[] src = other.data;
+        while (m > 0 && src[m - 1] >= limit) m--;
+        int[] d = data;
+        int n = size;
+        if (n + m > d.length) data = d = Arrays.copyOf(d, Math.max(n * 2, n + m));
+        System.arraycopy(src, 0, d, n, m);
+        size = n + m;
+    }
+
+    int get(int i) { return data[i]; }
+    int last() { return data[size - 1]; }
+    int size() { return size; }
+    boolean isEmpty() { return size == 0; }
+
+    int[] toArray() {
+        int n = size;
+        return Arrays.copyOf(data, n);
+    }
+}